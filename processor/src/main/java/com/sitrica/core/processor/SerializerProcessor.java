@@ -0,0 +1,390 @@
+package com.sitrica.core.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a StreamSerializer for every class annotated with SerializedData.
+ * <p>
+ * The generated serializers read and write fields directly and stream through the JsonReader and JsonWriter,
+ * following the same rules as the Database Gson: transient and static fields are skipped and
+ * {@code @SerializedName} is honoured.
+ */
+@SupportedAnnotationTypes(SerializerProcessor.ANNOTATION)
+public class SerializerProcessor extends AbstractProcessor {
+
+	static final String ANNOTATION = "com.sitrica.core.database.SerializedData";
+	private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+	private static final String SUFFIX = "_Serializer";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for (TypeElement annotation : annotations) {
+			for (Element element : round.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind() != ElementKind.CLASS) {
+					error(element, "@SerializedData can only be applied to classes.");
+					continue;
+				}
+				TypeElement type = (TypeElement) element;
+				if (!validate(type))
+					continue;
+				Map<String, SerializedField> fields = getFields(type);
+				if (fields == null)
+					continue;
+				try {
+					generate(type, fields.values());
+				} catch (IOException e) {
+					error(type, "Failed to write the serializer: " + e.getMessage());
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean validate(TypeElement type) {
+		Set<Modifier> modifiers = type.getModifiers();
+		if (modifiers.contains(Modifier.ABSTRACT)) {
+			error(type, "@SerializedData classes can't be abstract.");
+			return false;
+		}
+		if (modifiers.contains(Modifier.PRIVATE)) {
+			error(type, "@SerializedData classes can't be private.");
+			return false;
+		}
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL && !modifiers.contains(Modifier.STATIC)) {
+			error(type, "Nested @SerializedData classes must be static.");
+			return false;
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			error(type, "@SerializedData classes can't have type parameters.");
+			return false;
+		}
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+				return true;
+		}
+		error(type, "@SerializedData classes need a non private constructor without arguments.");
+		return false;
+	}
+
+	/**
+	 * Collects the serialized fields in the same order Gson binds them, the class first and then it's superclasses.
+	 */
+	private Map<String, SerializedField> getFields(TypeElement type) {
+		Map<String, SerializedField> fields = new LinkedHashMap<>();
+		String packageName = getPackage(type);
+		boolean valid = true;
+		TypeElement current = type;
+		while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+			boolean samePackage = getPackage(current).equals(packageName);
+			for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+					continue;
+				if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+					error(field, "Fields of @SerializedData classes can't be private or final, make the field package private or transient.");
+					valid = false;
+					continue;
+				}
+				if (!samePackage && !modifiers.contains(Modifier.PUBLIC)) {
+					error(field, "Inherited fields from another package must be public to be serialized by " + type.getSimpleName() + ".");
+					valid = false;
+					continue;
+				}
+				// Resolved from the annotated class, so the T of an inherited field becomes the type it's bound to.
+				TypeMirror resolved = processingEnv.getTypeUtils().asMemberOf((DeclaredType) type.asType(), field);
+				String typeName = getTypeName(resolved);
+				if (typeName == null) {
+					error(field, "The type " + resolved + " of the field can't be resolved from " + type.getSimpleName() + ", bind the type variables of " + current.getSimpleName() + " in the superclass.");
+					valid = false;
+					continue;
+				}
+				SerializedField serialized = new SerializedField(field, resolved, typeName);
+				for (String name : serialized.names) {
+					if (fields.containsKey(name)) {
+						error(field, "Duplicate serialized name '" + name + "' in " + type.getSimpleName() + ".");
+						valid = false;
+					}
+				}
+				fields.put(serialized.names.get(0), serialized);
+			}
+			TypeMirror superclass = current.getSuperclass();
+			if (superclass.getKind() != TypeKind.DECLARED)
+				break;
+			current = (TypeElement) ((DeclaredType) superclass).asElement();
+		}
+		return valid ? fields : null;
+	}
+
+	private void generate(TypeElement type, Iterable<SerializedField> fields) throws IOException {
+		String packageName = getPackage(type);
+		String className = getFlatName(type) + SUFFIX;
+		String typeName = type.getQualifiedName().toString();
+
+		// Every non primitive type gets one adapter from the Gson, shared between fields of the same type.
+		Map<String, String> adapters = new LinkedHashMap<>();
+		for (SerializedField field : fields) {
+			if (!field.type.getKind().isPrimitive() && !adapters.containsKey(field.typeName))
+				adapters.put(field.typeName, "adapter" + adapters.size());
+		}
+
+		JavaFileObject file = processingEnv.getFiler().createSourceFile((packageName.isEmpty() ? "" : packageName + ".") + className, type);
+		try (Writer writer = file.openWriter()) {
+			StringBuilder source = new StringBuilder();
+			if (!packageName.isEmpty())
+				source.append("package ").append(packageName).append(";\n\n");
+			source.append("import java.io.IOException;\n\n")
+					.append("import com.google.gson.Gson;\n")
+					.append("import com.google.gson.TypeAdapter;\n")
+					.append("import com.google.gson.reflect.TypeToken;\n")
+					.append("import com.google.gson.stream.JsonReader;\n")
+					.append("import com.google.gson.stream.JsonToken;\n")
+					.append("import com.google.gson.stream.JsonWriter;\n")
+					.append("import com.sitrica.core.database.StreamSerializer;\n\n")
+					.append("/**\n * Generated by the core-processor from ").append(type.getSimpleName()).append(", do not edit.\n */\n")
+					.append("public final class ").append(className).append(" extends StreamSerializer<").append(typeName).append("> {\n\n");
+			for (Map.Entry<String, String> adapter : adapters.entrySet())
+				source.append("\tprivate final TypeAdapter<").append(adapter.getKey()).append("> ").append(adapter.getValue()).append(";\n");
+			if (!adapters.isEmpty())
+				source.append("\n");
+
+			// Constructor
+			source.append("\tpublic ").append(className).append("(Gson gson) {\n")
+					.append("\t\tsuper(gson);\n");
+			for (Map.Entry<String, String> adapter : adapters.entrySet()) {
+				source.append("\t\t").append(adapter.getValue()).append(" = gson.getAdapter(new TypeToken<")
+						.append(adapter.getKey()).append(">() {});\n");
+			}
+			source.append("\t}\n\n");
+
+			// Writing
+			source.append("\t@Override\n")
+					.append("\tpublic void write(JsonWriter out, ").append(typeName).append(" value) throws IOException {\n")
+					.append("\t\tif (value == null) {\n")
+					.append("\t\t\tout.nullValue();\n")
+					.append("\t\t\treturn;\n")
+					.append("\t\t}\n")
+					.append("\t\tout.beginObject();\n");
+			for (SerializedField field : fields) {
+				String access = "value." + field.fieldName;
+				source.append("\t\tout.name(\"").append(escape(field.names.get(0))).append("\");\n");
+				if (field.type.getKind().isPrimitive())
+					source.append("\t\t").append(writePrimitive(field.type.getKind(), access)).append(";\n");
+				else
+					source.append("\t\t").append(adapters.get(field.typeName)).append(".write(out, ").append(access).append(");\n");
+			}
+			source.append("\t\tout.endObject();\n")
+					.append("\t}\n\n");
+
+			// Reading
+			source.append("\t@Override\n")
+					.append("\tpublic ").append(typeName).append(" read(JsonReader in) throws IOException {\n")
+					.append("\t\tif (in.peek() == JsonToken.NULL) {\n")
+					.append("\t\t\tin.nextNull();\n")
+					.append("\t\t\treturn null;\n")
+					.append("\t\t}\n")
+					.append("\t\t").append(typeName).append(" value = new ").append(typeName).append("();\n")
+					.append("\t\tin.beginObject();\n")
+					.append("\t\twhile (in.hasNext()) {\n")
+					.append("\t\t\tswitch (in.nextName()) {\n");
+			for (SerializedField field : fields) {
+				String access = "value." + field.fieldName;
+				for (String name : field.names)
+					source.append("\t\t\t\tcase \"").append(escape(name)).append("\":\n");
+				if (field.type.getKind().isPrimitive()) {
+					// Gson leaves primitives at their default when the json is null.
+					source.append("\t\t\t\t\tif (in.peek() == JsonToken.NULL)\n")
+							.append("\t\t\t\t\t\tin.nextNull();\n")
+							.append("\t\t\t\t\telse\n")
+							.append("\t\t\t\t\t\t").append(access).append(" = ").append(readPrimitive(field.type.getKind())).append(";\n");
+				} else {
+					source.append("\t\t\t\t\t").append(access).append(" = ").append(adapters.get(field.typeName)).append(".read(in);\n");
+				}
+				source.append("\t\t\t\t\tbreak;\n");
+			}
+			source.append("\t\t\t\tdefault:\n")
+					.append("\t\t\t\t\tin.skipValue();\n")
+					.append("\t\t\t}\n")
+					.append("\t\t}\n")
+					.append("\t\tin.endObject();\n")
+					.append("\t\treturn value;\n")
+					.append("\t}\n\n")
+					.append("}\n");
+			writer.write(source.toString());
+		}
+	}
+
+	private String writePrimitive(TypeKind kind, String access) {
+		switch (kind) {
+			case BOOLEAN:
+			case INT:
+			case LONG:
+			case SHORT:
+			case BYTE:
+			case DOUBLE:
+				return "out.value(" + access + ")";
+			case FLOAT:
+				// Boxing keeps the float precision in the output, the same as Gson.
+				return "out.value((Number) " + access + ")";
+			case CHAR:
+				return "out.value(String.valueOf(" + access + "))";
+			default:
+				throw new IllegalArgumentException("Not a primitive " + kind);
+		}
+	}
+
+	private String readPrimitive(TypeKind kind) {
+		switch (kind) {
+			case BOOLEAN:
+				return "in.nextBoolean()";
+			case INT:
+				return "in.nextInt()";
+			case LONG:
+				return "in.nextLong()";
+			case SHORT:
+				return "(short) in.nextInt()";
+			case BYTE:
+				return "(byte) in.nextInt()";
+			case DOUBLE:
+				return "in.nextDouble()";
+			case FLOAT:
+				return "(float) in.nextDouble()";
+			case CHAR:
+				return "in.nextString().charAt(0)";
+			default:
+				throw new IllegalArgumentException("Not a primitive " + kind);
+		}
+	}
+
+	/**
+	 * Prints the type as source, without the TYPE_USE annotations toString would include.
+	 *
+	 * @return The source of the type, null if it still holds a type variable.
+	 */
+	private String getTypeName(TypeMirror type) {
+		if (type.getKind().isPrimitive())
+			return type.getKind().name().toLowerCase(Locale.US);
+		switch (type.getKind()) {
+			case ARRAY:
+				String component = getTypeName(((ArrayType) type).getComponentType());
+				return component == null ? null : component + "[]";
+			case WILDCARD:
+				WildcardType wildcard = (WildcardType) type;
+				if (wildcard.getExtendsBound() != null) {
+					String bound = getTypeName(wildcard.getExtendsBound());
+					return bound == null ? null : "? extends " + bound;
+				}
+				if (wildcard.getSuperBound() != null) {
+					String bound = getTypeName(wildcard.getSuperBound());
+					return bound == null ? null : "? super " + bound;
+				}
+				return "?";
+			case DECLARED:
+				DeclaredType declared = (DeclaredType) type;
+				StringBuilder name = new StringBuilder(((TypeElement) declared.asElement()).getQualifiedName());
+				if (declared.getTypeArguments().isEmpty())
+					return name.toString();
+				name.append('<');
+				for (int i = 0; i < declared.getTypeArguments().size(); i++) {
+					String argument = getTypeName(declared.getTypeArguments().get(i));
+					if (argument == null)
+						return null;
+					name.append(i == 0 ? "" : ", ").append(argument);
+				}
+				return name.append('>').toString();
+			default:
+				// Type variables and anything else that can't be written in the generated serializer.
+				return null;
+		}
+	}
+
+	private String getPackage(TypeElement type) {
+		PackageElement element = processingEnv.getElementUtils().getPackageOf(type);
+		return element.isUnnamed() ? "" : element.getQualifiedName().toString();
+	}
+
+	/**
+	 * Must match StreamSerializer#getSerializerName, Outer.Inner becomes Outer_Inner.
+	 */
+	private String getFlatName(TypeElement type) {
+		String packageName = getPackage(type);
+		String name = type.getQualifiedName().toString();
+		if (!packageName.isEmpty())
+			name = name.substring(packageName.length() + 1);
+		return name.replace('.', '_');
+	}
+
+	private static String escape(String string) {
+		return string.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	private static class SerializedField {
+
+		private final List<String> names = new ArrayList<>();
+		private final String fieldName, typeName;
+		private final TypeMirror type;
+
+		SerializedField(VariableElement field, TypeMirror type, String typeName) {
+			this.fieldName = field.getSimpleName().toString();
+			this.type = type;
+			this.typeName = typeName;
+			for (AnnotationMirror mirror : field.getAnnotationMirrors()) {
+				if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(SERIALIZED_NAME))
+					continue;
+				for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+					String key = entry.getKey().getSimpleName().toString();
+					if (key.equals("value")) {
+						names.add(0, (String) entry.getValue().getValue());
+					} else if (key.equals("alternate")) {
+						@SuppressWarnings("unchecked")
+						List<? extends AnnotationValue> alternates = (List<? extends AnnotationValue>) entry.getValue().getValue();
+						for (AnnotationValue alternate : alternates)
+							names.add((String) alternate.getValue());
+					}
+				}
+			}
+			if (names.isEmpty())
+				names.add(fieldName);
+		}
+
+	}
+
+}
@@ -7,11 +7,21 @@ import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import com.sitrica.core.command.CommandHandler;
+import com.sitrica.core.database.DatabaseRegistry;
 import com.sitrica.core.manager.Manager;
+import com.sitrica.core.messaging.ActionbarManager;
 import com.sitrica.core.messaging.Formatting;
+import com.sitrica.core.messaging.MessageQueue;
+import com.sitrica.core.messaging.MessageTemplate;
+import com.sitrica.core.placeholders.PlaceholderListener;
+import com.sitrica.core.utils.KeyedExecutor;
 
 public abstract class SourPlugin extends JavaPlugin {
 
+	private ActionbarManager actionbarManager;
+	private DatabaseRegistry databaseRegistry;
+	private KeyedExecutor keyedExecutor;
+	private MessageQueue messageQueue;
 	private String[] managerPackages;
 	private final String prefix;
 
@@ -56,6 +66,104 @@ public abstract class SourPlugin extends JavaPlugin {
 	 */
 	public abstract CommandHandler getCommandHandler();
 
+	/**
+	 * @return The DatabaseRegistry holding every table of the plugin.
+	 */
+	public synchronized DatabaseRegistry getDatabaseRegistry() {
+		if (databaseRegistry == null)
+			databaseRegistry = new DatabaseRegistry(this);
+		return databaseRegistry;
+	}
+
+	/**
+	 * The executor for async work that has to stay in order per key, such as per player, see {@link KeyedExecutor}.
+	 * The database writes of the plugin run on it too.
+	 * <p>
+	 * 	async:
+	 * 	    # The worker threads shared by every key, defaults to the amount of cores.
+	 * 	    threads: 4
+	 * 	    # The maximum amount of queued tasks before submitting waits.
+	 * 	    queue-size: 10000
+	 * 	    # The milliseconds the server thread waits for room in a full queue before going past it.
+	 * 	    main-thread-wait: 50
+	 * 
+	 * @return The KeyedExecutor of the plugin.
+	 */
+	public synchronized KeyedExecutor getKeyedExecutor() {
+		if (keyedExecutor == null) {
+			int threads = getConfig().getInt("async.threads", Runtime.getRuntime().availableProcessors());
+			keyedExecutor = new KeyedExecutor(getName() + " Keyed Worker", threads, getConfig().getInt("async.queue-size", 10000), getConfig().getLong("async.main-thread-wait", 50));
+		}
+		return keyedExecutor;
+	}
+
+	/**
+	 * The actionbar shared between the features of the plugin, see {@link ActionbarManager}.
+	 *
+	 * @return The ActionbarManager of the plugin.
+	 */
+	public synchronized ActionbarManager getActionbarManager() {
+		if (actionbarManager == null)
+			actionbarManager = new ActionbarManager(this);
+		return actionbarManager;
+	}
+
+	/**
+	 * The queue coalescing and rate limiting the messages sent to players, see {@link MessageQueue} for it's configuration.
+	 *
+	 * @return The MessageQueue of the plugin.
+	 */
+	public synchronized MessageQueue getMessageQueue() {
+		if (messageQueue == null)
+			messageQueue = new MessageQueue(this);
+		return messageQueue;
+	}
+
+	/**
+	 * Registers the listeners of the core, plugins overriding this should call super.
+	 */
+	@Override
+	public void onEnable() {
+		Bukkit.getPluginManager().registerEvents(new PlaceholderListener(), this);
+	}
+
+	/**
+	 * Waits for the queued keyed tasks and closes the databases of the plugin, plugins overriding this should call super.
+	 */
+	@Override
+	public void onDisable() {
+		synchronized (this) {
+			if (actionbarManager != null)
+				actionbarManager.close();
+			actionbarManager = null;
+			if (messageQueue != null)
+				messageQueue.close();
+			messageQueue = null;
+			// The queued writes have to land before the databases close.
+			if (keyedExecutor != null && !keyedExecutor.shutdown(10000))
+				consoleMessage("&cTimed out waiting for " + keyedExecutor.getQueued() + " queued tasks.");
+			keyedExecutor = null;
+			if (databaseRegistry != null)
+				databaseRegistry.close();
+			databaseRegistry = null;
+		}
+	}
+
+	/**
+	 * Reloads the config.yml and clears the compiled messages, plugins reloading other configurations should call {@link MessageTemplate#invalidate()}.
+	 */
+	@Override
+	public void reloadConfig() {
+		super.reloadConfig();
+		MessageTemplate.invalidate();
+		synchronized (this) {
+			// Read again with the new limits when next used.
+			if (messageQueue != null)
+				messageQueue.close();
+			messageQueue = null;
+		}
+	}
+
 	/**
 	 * @return The package names where managers exist to be registered.
 	 */
@@ -60,12 +60,12 @@ public abstract class AbstractCommand {
 
 	public String getDescription(CommandSender sender) {
 		String description = messages.getString("commands." + getConfigurationNode() + ".description");
-		return Formatting.color(description);
+		return Formatting.colorCached(description);
 	}
 
 	public String getSyntax(CommandSender sender) {
 		String syntax = messages.getString("commands." + getConfigurationNode() + ".syntax");
-		return Formatting.color(syntax);
+		return Formatting.colorCached(syntax);
 	}
 
 }
@@ -93,6 +93,18 @@ public class CommandHandler implements CommandExecutor {
 		new MessageBuilder(instance, "messages.no-permission").send(sender);
 	}
 
+	/**
+	 * Registers a command that isn't in the command packages, such as the {@link StorageCommand} of the core.
+	 *
+	 * @param command The command to register.
+	 */
+	public void registerCommand(AbstractCommand command) {
+		commands.add(command);
+		String aliases = command.getAliases();
+		if (aliases != null)
+			instance.getCommand(aliases).setExecutor(new AliasesProcessor(instance, command));
+	}
+
 	public List<AbstractCommand> getCommands() {
 		return Collections.unmodifiableList(commands);
 	}
@@ -0,0 +1,148 @@
+package com.sitrica.core.command;
+
+import java.util.Locale;
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+
+import com.sitrica.core.SourPlugin;
+import com.sitrica.core.database.ConnectionPool;
+import com.sitrica.core.database.DatabaseRegistry;
+import com.sitrica.core.database.ReplicaRouter.Replica;
+import com.sitrica.core.database.StorageMetrics;
+import com.sitrica.core.database.StorageMetrics.Histogram;
+import com.sitrica.core.database.StorageMetrics.Operation;
+import com.sitrica.core.messaging.MessageBuilder;
+
+/**
+ * Shows the storage metrics of every table of the plugin, register it with {@link CommandHandler#registerCommand(AbstractCommand)}.
+ * <p>
+ * Usage: storage [table|dump]
+ * <p>
+ * The messages are read from the messages.yml of the plugin:
+ * <p>
+ * 	messages:
+ * 	    storage:
+ * 	        dumped: "&7Dumped the storage metrics to the metrics folder."
+ * 	        no-table: "&cThere is no table named %table%"
+ * 	        header: "&7Storage of &6%plugin%&7, latencies in microseconds:"
+ * 	        pool: "&7Pool &f%url%&7: &f%open%/%size% &7open, &f%idle% &7idle"
+ * 	        replica: "&7Replica &f%url%&7: lag &f%lag%&7ms, latency &f%latency%"
+ * 	        replica-failure: "&7Replica &f%url%&7: &c%failure%"
+ * 	        table: "&6%table%&7: queued &f%queued%&7, errors &f%errors%"
+ * 	        operation: "&7  %operation%: &f%count% &7ops, p50 &f%p50%&7, p99 &f%p99%&7, max &f%max%&7, errors &f%errors%"
+ * 	        cache: "&7  %cache% hit rate: &f%rate%"
+ * 	        written: "&7  written bytes: p50 &f%p50%&7, max &f%max%"
+ * 	        last-error: "&7  last error: &c%error%"
+ */
+public class StorageCommand extends AdminCommand {
+
+	public StorageCommand(SourPlugin instance) {
+		super(instance, true, "storage");
+	}
+
+	@Override
+	public ReturnType runCommand(String label, CommandSender sender, String... arguments) {
+		if (arguments.length > 1)
+			return ReturnType.SYNTAX_ERROR;
+		DatabaseRegistry registry = instance.getDatabaseRegistry();
+		if (arguments.length == 1 && arguments[0].equalsIgnoreCase("dump")) {
+			// Writing the files is disk IO, the sender is told back on the main thread.
+			registry.dumpMetricsAsync().thenRun(() -> Bukkit.getScheduler().runTask(instance, () -> new MessageBuilder(instance, "messages.storage.dumped").send(sender)));
+			return ReturnType.SUCCESS;
+		}
+		Map<String, StorageMetrics> metrics = registry.getMetrics();
+		if (arguments.length == 1) {
+			String name = arguments[0].toLowerCase(Locale.US);
+			StorageMetrics table = metrics.get(name);
+			if (table == null) {
+				new MessageBuilder(instance, "messages.storage.no-table")
+						.replace("%table%", arguments[0])
+						.send(sender);
+				return ReturnType.FAILURE;
+			}
+			send(sender, name, table);
+			return ReturnType.SUCCESS;
+		}
+		new MessageBuilder(instance, "messages.storage.header")
+				.replace("%plugin%", instance.getName())
+				.send(sender);
+		for (ConnectionPool pool : registry.getPools()) {
+			new MessageBuilder(instance, false, "messages.storage.pool")
+					.replace("%url%", pool.getUrl())
+					.replace("%open%", pool.getOpen())
+					.replace("%size%", pool.getSize())
+					.replace("%idle%", pool.getIdle())
+					.send(sender);
+		}
+		for (Replica replica : registry.getReplicas()) {
+			String failure = replica.getFailure();
+			if (failure != null) {
+				new MessageBuilder(instance, false, "messages.storage.replica-failure")
+						.replace("%url%", replica.getUrl())
+						.replace("%failure%", failure)
+						.send(sender);
+				continue;
+			}
+			new MessageBuilder(instance, false, "messages.storage.replica")
+					.replace("%url%", replica.getUrl())
+					.replace("%lag%", replica.getLag())
+					.replace("%latency%", replica.getLatency() / 1000)
+					.send(sender);
+		}
+		metrics.forEach((table, metric) -> send(sender, table, metric));
+		return ReturnType.SUCCESS;
+	}
+
+	private void send(CommandSender sender, String table, StorageMetrics metrics) {
+		new MessageBuilder(instance, false, "messages.storage.table")
+				.replace("%table%", table)
+				.replace("%queued%", metrics.getQueueDepth())
+				.replace("%errors%", metrics.getErrors())
+				.send(sender);
+		for (Operation operation : Operation.values()) {
+			Histogram latency = metrics.getLatency(operation);
+			if (latency.getCount() == 0 && metrics.getErrors(operation) == 0)
+				continue;
+			new MessageBuilder(instance, false, "messages.storage.operation")
+					.replace("%operation%", operation.name().toLowerCase(Locale.US))
+					.replace("%count%", latency.getCount())
+					.replace("%p50%", latency.getPercentile(0.5))
+					.replace("%p99%", latency.getPercentile(0.99))
+					.replace("%max%", latency.getMax())
+					.replace("%errors%", metrics.getErrors(operation))
+					.send(sender);
+		}
+		for (String cache : metrics.getCaches()) {
+			new MessageBuilder(instance, false, "messages.storage.cache")
+					.replace("%cache%", cache)
+					.replace("%rate%", String.format(Locale.US, "%.1f%%", metrics.getHitRate(cache) * 100))
+					.send(sender);
+		}
+		Histogram written = metrics.getWrittenBytes();
+		if (written.getCount() > 0) {
+			new MessageBuilder(instance, false, "messages.storage.written")
+					.replace("%p50%", written.getPercentile(0.5))
+					.replace("%max%", written.getMax())
+					.send(sender);
+		}
+		String error = metrics.getLastError();
+		if (error != null) {
+			new MessageBuilder(instance, false, "messages.storage.last-error")
+					.replace("%error%", error)
+					.send(sender);
+		}
+	}
+
+	@Override
+	public String getConfigurationNode() {
+		return "storage";
+	}
+
+	@Override
+	public String[] getPermissionNodes() {
+		return new String[] {instance.getName().toLowerCase() + ".storage", instance.getName().toLowerCase() + ".admin"};
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.sitrica.core.command;
+
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+
+import com.sitrica.core.SourPlugin;
+import com.sitrica.core.database.BlockingWatchdog;
+import com.sitrica.core.database.BlockingWatchdog.Site;
+import com.sitrica.core.messaging.MessageBuilder;
+
+/**
+ * Shows the code blocking the main thread with Database calls, register it with {@link CommandHandler#registerCommand(AbstractCommand)}.
+ * <p>
+ * Usage: watchdog [stack|reset]
+ * <p>
+ * The messages are read from the messages.yml of the plugin:
+ * <p>
+ * 	messages:
+ * 	    watchdog:
+ * 	        disabled: "&cThe watchdog isn't enabled, set database.watchdog.enabled to true."
+ * 	        reset: "&7Reset the watchdog."
+ * 	        blocked: "&7The main thread blocked for &f%blocked%ms &7in &f%calls% &7database calls."
+ * 	        sites: "&7Slowest sampled call sites, slow is over &f%threshold%ms&7:"
+ * 	        site: "&6%location%&7: &f%total%ms &7in &f%count% &7calls, &f%slow% &7slow, max &f%max%ms &7%operations%"
+ * 	        stack: "&7  at %element%"
+ */
+public class WatchdogCommand extends AdminCommand {
+
+	private static final int SITES = 10;
+
+	public WatchdogCommand(SourPlugin instance) {
+		super(instance, true, "watchdog");
+	}
+
+	@Override
+	public ReturnType runCommand(String label, CommandSender sender, String... arguments) {
+		if (arguments.length > 1)
+			return ReturnType.SYNTAX_ERROR;
+		BlockingWatchdog watchdog = instance.getDatabaseRegistry().getWatchdog();
+		if (watchdog == null) {
+			new MessageBuilder(instance, "messages.watchdog.disabled").send(sender);
+			return ReturnType.FAILURE;
+		}
+		boolean stack = false;
+		if (arguments.length == 1) {
+			if (arguments[0].equalsIgnoreCase("reset")) {
+				watchdog.reset();
+				new MessageBuilder(instance, "messages.watchdog.reset").send(sender);
+				return ReturnType.SUCCESS;
+			} else if (!arguments[0].equalsIgnoreCase("stack")) {
+				return ReturnType.SYNTAX_ERROR;
+			}
+			stack = true;
+		}
+		new MessageBuilder(instance, "messages.watchdog.blocked")
+				.replace("%blocked%", watchdog.getBlocked() / 1000000)
+				.replace("%calls%", watchdog.getCalls())
+				.send(sender);
+		List<Site> sites = watchdog.getSites();
+		if (sites.isEmpty())
+			return ReturnType.SUCCESS;
+		new MessageBuilder(instance, false, "messages.watchdog.sites")
+				.replace("%threshold%", watchdog.getThreshold())
+				.send(sender);
+		for (Site site : sites.subList(0, Math.min(SITES, sites.size()))) {
+			new MessageBuilder(instance, false, "messages.watchdog.site")
+					.replace("%location%", site.getLocation())
+					.replace("%total%", site.getTotal() / 1000000)
+					.replace("%count%", site.getCount())
+					.replace("%slow%", site.getSlow())
+					.replace("%max%", site.getMax() / 1000000)
+					.replace("%operations%", site.getOperations())
+					.send(sender);
+			StackTraceElement[] elements = site.getStack();
+			if (!stack || elements == null)
+				continue;
+			for (int i = 1; i < elements.length; i++) {
+				new MessageBuilder(instance, false, "messages.watchdog.stack")
+						.replace("%element%", elements[i])
+						.send(sender);
+			}
+		}
+		return ReturnType.SUCCESS;
+	}
+
+	@Override
+	public String getConfigurationNode() {
+		return "watchdog";
+	}
+
+	@Override
+	public String[] getPermissionNodes() {
+		return new String[] {instance.getName().toLowerCase() + ".watchdog", instance.getName().toLowerCase() + ".admin"};
+	}
+
+}
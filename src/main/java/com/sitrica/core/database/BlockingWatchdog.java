@@ -0,0 +1,216 @@
+package com.sitrica.core.database;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+
+import com.sitrica.core.database.StorageMetrics.Operation;
+
+/**
+ * Records the Database calls that blocked the main thread of the server, grouped by the code that made them.
+ * <p>
+ * Grabbing the caller's stack is the only costly part, so it's only done for a sample of the calls
+ * and for every call slower than the threshold. Calls off the main thread are ignored.
+ * Slow calls are reported to the debug messages, at most once a minute per call site.
+ * <p>
+ * 	database:
+ * 	    watchdog:
+ * 	        enabled: true
+ * 	        # Milliseconds a main thread call can block before it's reported.
+ * 	        threshold: 5
+ * 	        # Grabs the caller of 1 in this many calls that weren't slow.
+ * 	        sample-rate: 16
+ */
+public class BlockingWatchdog {
+
+	private static final long REPORT_INTERVAL = 60000;
+	private static final int STACK_DEPTH = 8;
+
+	private final Map<String, Site> sites = new ConcurrentHashMap<>();
+	private final LongAdder calls = new LongAdder(), blocked = new LongAdder();
+	private final Consumer<String> reporter;
+	private final long threshold;
+	private final int sampleRate;
+
+	/**
+	 * @param threshold The milliseconds a call can block before it's slow.
+	 * @param sampleRate Grabs the caller of 1 in this many calls that weren't slow, 0 or lower only grabs slow calls.
+	 * @param reporter Where slow calls are reported to, such as {@link com.sitrica.core.SourPlugin#debugMessage(String)}.
+	 */
+	public BlockingWatchdog(long threshold, int sampleRate, Consumer<String> reporter) {
+		this.threshold = threshold * 1000000;
+		this.sampleRate = sampleRate;
+		this.reporter = reporter;
+	}
+
+	/**
+	 * Records a finished Database call if it was made on the main thread.
+	 *
+	 * @param table The table of the database.
+	 * @param operation The operation that finished.
+	 * @param start The {@link System#nanoTime()} the operation started at.
+	 */
+	public void record(String table, Operation operation, long start) {
+		if (!Bukkit.isPrimaryThread())
+			return;
+		long duration = System.nanoTime() - start;
+		calls.increment();
+		blocked.add(duration);
+		boolean slow = duration >= threshold;
+		if (!slow && (sampleRate <= 0 || ThreadLocalRandom.current().nextInt(sampleRate) != 0))
+			return;
+		StackTraceElement[] stack = getCaller(new Throwable().getStackTrace());
+		if (stack.length == 0)
+			return;
+		String key = stack[0].toString();
+		Site site = sites.computeIfAbsent(key, k -> new Site(k));
+		site.record(table, operation, duration, slow, stack);
+		if (slow && site.shouldReport())
+			reporter.accept("Main thread blocked for " + duration / 1000000 + "ms by " + operation.name().toLowerCase() + " on " + table + " at " + key
+					+ " (" + site.slow.sum() + " slow calls from there)");
+	}
+
+	// The frames after the database classes, the first is the code that called the database.
+	private StackTraceElement[] getCaller(StackTraceElement[] stack) {
+		int first = 0;
+		for (int i = 0; i < stack.length; i++) {
+			if (stack[i].getClassName().startsWith(BlockingWatchdog.class.getPackage().getName() + "."))
+				first = i + 1;
+		}
+		List<StackTraceElement> caller = new ArrayList<>();
+		for (int i = first; i < stack.length && caller.size() < STACK_DEPTH; i++)
+			caller.add(stack[i]);
+		return caller.toArray(new StackTraceElement[caller.size()]);
+	}
+
+	/**
+	 * @return The call sites ordered by the time they blocked the main thread, slowest first.
+	 */
+	public List<Site> getSites() {
+		List<Site> list = new ArrayList<>(sites.values());
+		list.sort(Comparator.comparingLong(Site::getTotal).reversed());
+		return list;
+	}
+
+	/**
+	 * @return The amount of Database calls made on the main thread.
+	 */
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	/**
+	 * @return The nanoseconds the main thread spent blocked on Database calls.
+	 */
+	public long getBlocked() {
+		return blocked.sum();
+	}
+
+	public long getThreshold() {
+		return threshold / 1000000;
+	}
+
+	public void reset() {
+		sites.clear();
+		calls.reset();
+		blocked.reset();
+	}
+
+	/**
+	 * The sampled calls from a single line of code.
+	 */
+	public static class Site {
+
+		private final Map<String, LongAdder> operations = new ConcurrentHashMap<>();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+		private final LongAdder count = new LongAdder(), slow = new LongAdder(), total = new LongAdder();
+		private volatile StackTraceElement[] stack;
+		private volatile long reported;
+		private final String location;
+
+		Site(String location) {
+			this.location = location;
+		}
+
+		private void record(String table, Operation operation, long duration, boolean slow, StackTraceElement[] stack) {
+			operations.computeIfAbsent(operation.name().toLowerCase() + " " + table, k -> new LongAdder()).increment();
+			count.increment();
+			total.add(duration);
+			if (slow)
+				this.slow.increment();
+			if (duration >= max.get()) {
+				max.accumulate(duration);
+				this.stack = stack;
+			}
+		}
+
+		private synchronized boolean shouldReport() {
+			long now = System.currentTimeMillis();
+			if (now - reported < REPORT_INTERVAL)
+				return false;
+			reported = now;
+			return true;
+		}
+
+		/**
+		 * @return The class, method and line of the code that made the calls.
+		 */
+		public String getLocation() {
+			return location;
+		}
+
+		/**
+		 * @return The stack of the slowest sampled call, starting at the call site.
+		 */
+		public StackTraceElement[] getStack() {
+			return stack;
+		}
+
+		/**
+		 * @return The amount of sampled calls by operation and table, e.g: "get Kingdoms"
+		 */
+		public Map<String, Long> getOperations() {
+			Map<String, Long> map = new ConcurrentHashMap<>();
+			operations.forEach((operation, adder) -> map.put(operation, adder.sum()));
+			return map;
+		}
+
+		/**
+		 * @return The amount of sampled calls.
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * @return The amount of calls slower than the threshold.
+		 */
+		public long getSlow() {
+			return slow.sum();
+		}
+
+		/**
+		 * @return The nanoseconds the sampled calls blocked the main thread.
+		 */
+		public long getTotal() {
+			return total.sum();
+		}
+
+		/**
+		 * @return The nanoseconds of the slowest call.
+		 */
+		public long getMax() {
+			return max.get();
+		}
+
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.sitrica.core.database;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks consecutive failures of a remote database and opens once too many happen in a row,
+ * so callers stop waiting on a connection that is known to be down.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		/**
+		 * Requests go to the database as normal.
+		 */
+		CLOSED,
+		/**
+		 * The database is down, requests shouldn't be attempted.
+		 */
+		OPEN,
+		/**
+		 * The database is back and the backlog is being replayed, new writes still wait while reads go through.
+		 */
+		HALF_OPEN
+	}
+
+	private final AtomicInteger failures = new AtomicInteger();
+	private volatile State state = State.CLOSED;
+	private final int threshold;
+
+	/**
+	 * @param threshold The amount of failures in a row before opening.
+	 */
+	public CircuitBreaker(int threshold) {
+		this.threshold = Math.max(1, threshold);
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public boolean isClosed() {
+		return state == State.CLOSED;
+	}
+
+	public void recordSuccess() {
+		failures.set(0);
+	}
+
+	/**
+	 * @return true if the failure reached the threshold and the circuit should be opened with {@link #trip()}.
+	 */
+	public boolean recordFailure() {
+		return failures.incrementAndGet() >= threshold;
+	}
+
+	/**
+	 * Opens the circuit regardless of the failure count.
+	 *
+	 * @return true if the circuit wasn't already open.
+	 */
+	public synchronized boolean trip() {
+		if (state == State.OPEN)
+			return false;
+		state = State.OPEN;
+		return true;
+	}
+
+	public synchronized void open() {
+		state = State.OPEN;
+	}
+
+	public synchronized void halfOpen() {
+		state = State.HALF_OPEN;
+	}
+
+	public synchronized void close() {
+		failures.set(0);
+		state = State.CLOSED;
+	}
+
+}
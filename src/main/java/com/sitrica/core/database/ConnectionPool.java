@@ -0,0 +1,235 @@
+package com.sitrica.core.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A bounded pool of JDBC connections shared by the tables of a database,
+ * so the amount of connections scales with concurrent use instead of with the amount of tables.
+ * <p>
+ * Connections are opened on demand up to the size of the pool, callers wait for one to be released past that.
+ * A connection that lost it's link to the database is closed instead of returned, and connections idle for a while are validated before reuse.
+ */
+public class ConnectionPool {
+
+	// Milliseconds a connection can be idle before it's validated on borrow.
+	private static final long VALIDATE = 5000;
+
+	@FunctionalInterface
+	public interface SQLFunction<R> {
+		R apply(Connection connection) throws SQLException;
+	}
+
+	private final Deque<Idle> idle = new ArrayDeque<>();
+	private final String url, username, password;
+	private final long timeout;
+	private final int size;
+	private boolean closed;
+	private int open;
+
+	/**
+	 * @param url The JDBC url of the database.
+	 * @param username The user to connect with, null for none.
+	 * @param password The password of the user.
+	 * @param size The maximum amount of open connections.
+	 * @param timeout The milliseconds to wait for a connection before failing.
+	 */
+	public ConnectionPool(String url, String username, String password, int size, long timeout) {
+		this.size = Math.max(1, size);
+		this.username = username;
+		this.password = password;
+		this.timeout = timeout;
+		this.url = url;
+	}
+
+	/**
+	 * Runs the function with a connection of the pool, the connection is released afterwards
+	 * or closed if the function failed with an SQLException because the connection broke.
+	 *
+	 * @param <R> The result of the function.
+	 * @param function The function to run with the connection.
+	 * @return The result of the function.
+	 * @throws SQLException If no connection could be grabbed or the function failed.
+	 */
+	public <R> R execute(SQLFunction<R> function) throws SQLException {
+		Connection connection = borrow();
+		try {
+			R result = function.apply(connection);
+			release(connection);
+			return result;
+		} catch (SQLException e) {
+			// A statement error such as a constraint violation leaves the connection usable.
+			if (isConnectionFailure(e) || !isValid(connection, 1))
+				invalidate(connection);
+			else
+				release(connection);
+			throw e;
+		} catch (RuntimeException e) {
+			release(connection);
+			throw e;
+		}
+	}
+
+	/**
+	 * Grab a connection, it must be given back with {@link #release(Connection)} or {@link #invalidate(Connection)}.
+	 * A slot is taken while holding the pool, validating and connecting happen outside it so other callers don't wait on the network.
+	 *
+	 * @return A connection of the pool.
+	 * @throws SQLException If the pool is closed, a connection couldn't be opened or the wait timed out.
+	 */
+	public Connection borrow() throws SQLException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			Idle next;
+			synchronized (this) {
+				if (closed)
+					throw new SQLException("The connection pool of " + url + " is closed");
+				// The most recently used connection first, so rarely needed connections go idle.
+				next = idle.pollFirst();
+				if (next == null && open >= size) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						throw new SQLException("Timed out waiting for a connection of " + url);
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted waiting for a connection of " + url, e);
+					}
+					continue;
+				}
+				if (next == null)
+					open++;
+			}
+			if (next != null) {
+				if (System.currentTimeMillis() - next.since < VALIDATE || isValid(next.connection, 2))
+					return next.connection;
+				invalidate(next.connection);
+				continue;
+			}
+			try {
+				return username == null ? DriverManager.getConnection(url) : DriverManager.getConnection(url, username, password);
+			} catch (SQLException e) {
+				synchronized (this) {
+					open--;
+					notify();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @param exception The exception a statement failed with.
+	 * @return If the exception is a lost or refused connection, rather than an error of the statement itself.
+	 */
+	public static boolean isConnectionFailure(SQLException exception) {
+		for (SQLException next = exception; next != null; next = next.getNextException()) {
+			if (next instanceof SQLTransientConnectionException || next instanceof SQLNonTransientConnectionException)
+				return true;
+			// SQLState class 08 is a connection exception.
+			if (next.getSQLState() != null && next.getSQLState().startsWith("08"))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isValid(Connection connection, int seconds) {
+		try {
+			return connection.isValid(seconds);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param connection The connection to give back to the pool.
+	 */
+	public void release(Connection connection) {
+		synchronized (this) {
+			if (!closed) {
+				idle.addFirst(new Idle(connection));
+				notify();
+				return;
+			}
+		}
+		invalidate(connection);
+	}
+
+	/**
+	 * Closes a connection that failed instead of giving it back.
+	 * The connection is closed outside of the pool, so a slow close doesn't hold up other callers.
+	 *
+	 * @param connection The connection to close.
+	 */
+	public void invalidate(Connection connection) {
+		close(connection);
+		synchronized (this) {
+			open--;
+			notify();
+		}
+	}
+
+	/**
+	 * @return The amount of open connections, borrowed or idle.
+	 */
+	public synchronized int getOpen() {
+		return open;
+	}
+
+	/**
+	 * @return The amount of open connections that aren't borrowed.
+	 */
+	public synchronized int getIdle() {
+		return idle.size();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Closes the idle connections, borrowed connections are closed as they're released.
+	 */
+	public void close() {
+		List<Idle> closing;
+		synchronized (this) {
+			closed = true;
+			closing = new ArrayList<>(idle);
+			open -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		for (Idle next : closing)
+			close(next.connection);
+	}
+
+	private void close(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {}
+	}
+
+	private static class Idle {
+
+		private final Connection connection;
+		private final long since = System.currentTimeMillis();
+
+		Idle(Connection connection) {
+			this.connection = connection;
+		}
+
+	}
+
+}
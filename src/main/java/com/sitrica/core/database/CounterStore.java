@@ -0,0 +1,332 @@
+package com.sitrica.core.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sitrica.core.database.StorageMetrics.Operation;
+
+/**
+ * A table of numeric counters, such as blocks broken or kills, incremented without reading or writing a whole value of a {@link Database}.
+ * <p>
+ * Increments only add to an in memory {@link LongAdder} of the key, so they're lock free and cheap under contention.
+ * The deltas are flushed on an interval as a single batch in a transaction, adding to the stored value with {@code value + ?}.
+ * Reads combine the stored value with the delta that isn't flushed yet. If a flush fails the deltas are kept for the next one.
+ * Counters that are flushed and weren't used for a while are dropped from memory, they're loaded again when next read.
+ */
+public class CounterStore {
+
+	// Milliseconds a flushed counter stays in memory without being used.
+	private static final long IDLE = TimeUnit.MINUTES.toMillis(5);
+	private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SourCore Counter Flush");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public enum Dialect {
+
+		H2("UPDATE %table SET `value` = `value` + ? WHERE `id` = ?;", "INSERT INTO %table (`id`, `value`) VALUES (?, ?);"),
+		// A missing row is inserted with the delta, existing rows add it.
+		MYSQL("INSERT INTO %table (`id`, `value`) VALUES (?, ?) ON DUPLICATE KEY UPDATE `value` = `value` + VALUES(`value`);", null);
+
+		private final String update, insert;
+
+		Dialect(String update, String insert) {
+			this.update = update;
+			this.insert = insert;
+		}
+
+	}
+
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+	private final StorageMetrics metrics = new StorageMetrics();
+	private final ScheduledFuture<?> flusher;
+	private final ConnectionPool pool;
+	private final String tablename;
+	private final Dialect dialect;
+	private final boolean owned;
+
+	/**
+	 * @param url The JDBC url of the database.
+	 * @param username The user to connect with, null for none.
+	 * @param password The password of the user.
+	 * @param tablename The table of the counters, created if it doesn't exist.
+	 * @param dialect The SQL dialect of the database.
+	 * @param interval The milliseconds between flushes of the deltas.
+	 * @throws SQLException If the connection or table creation failed.
+	 */
+	public CounterStore(String url, String username, String password, String tablename, Dialect dialect, long interval) throws SQLException {
+		this(new ConnectionPool(url, username, password, 1, 30000), true, tablename, dialect, interval);
+	}
+
+	/**
+	 * @param pool The ConnectionPool of the database, it isn't closed with this store.
+	 * @param tablename The table of the counters, created if it doesn't exist.
+	 * @param dialect The SQL dialect of the database.
+	 * @param interval The milliseconds between flushes of the deltas.
+	 * @throws SQLException If the table creation failed.
+	 */
+	public CounterStore(ConnectionPool pool, String tablename, Dialect dialect, long interval) throws SQLException {
+		this(pool, false, tablename, dialect, interval);
+	}
+
+	private CounterStore(ConnectionPool pool, boolean owned, String tablename, Dialect dialect, long interval) throws SQLException {
+		this.tablename = tablename;
+		this.dialect = dialect;
+		this.owned = owned;
+		this.pool = pool;
+		pool.execute(connection -> {
+			PreparedStatement statement = connection.prepareStatement("CREATE TABLE IF NOT EXISTS %table (`id` VARCHAR(64) PRIMARY KEY, `value` BIGINT NOT NULL DEFAULT 0);".replace("%table", tablename));
+			statement.executeUpdate();
+			statement.close();
+			return null;
+		});
+		interval = Math.max(interval, 50);
+		flusher = FLUSHER.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds to the counter of the key, stored on the next flush.
+	 *
+	 * @param key The key of the counter.
+	 * @param delta The amount to add, negative to subtract.
+	 */
+	public void add(String key, long delta) {
+		while (true) {
+			Counter counter = counters.computeIfAbsent(key, k -> new Counter());
+			counter.used = System.currentTimeMillis();
+			counter.adder.add(delta);
+			if (!counter.evicted)
+				return;
+			// Added to a counter being dropped, taken back and added to a new one.
+			counter.adder.add(-delta);
+			counters.remove(key, counter);
+		}
+	}
+
+	public void increment(String key) {
+		add(key, 1);
+	}
+
+	/**
+	 * @param key The key of the counter.
+	 * @return The stored value of the counter including the deltas that aren't flushed yet, 0 if never counted.
+	 * @throws DatabaseUnavailableException If the stored value couldn't be loaded, rather than returning only the deltas.
+	 */
+	public long get(String key) {
+		Counter counter = counters.computeIfAbsent(key, k -> new Counter());
+		counter.used = System.currentTimeMillis();
+		if (!counter.loaded)
+			load(key, counter);
+		synchronized (counter) {
+			return counter.base + counter.adder.sum() - counter.flushed;
+		}
+	}
+
+	/**
+	 * @return The amount of counters with deltas waiting to be flushed.
+	 */
+	public int getPending() {
+		int pending = 0;
+		for (Counter counter : counters.values()) {
+			synchronized (counter) {
+				if (counter.adder.sum() != counter.flushed)
+					pending++;
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Flushes every pending delta in a single batch.
+	 *
+	 * @return true if the deltas were stored, or there weren't any.
+	 */
+	public synchronized boolean flush() {
+		Map<Counter, Long> deltas = new LinkedHashMap<>();
+		Map<String, Long> keys = new LinkedHashMap<>();
+		counters.forEach((key, counter) -> {
+			synchronized (counter) {
+				// Increments racing with the flush are left in the adder for the next flush.
+				long delta = counter.adder.sum() - counter.flushed;
+				if (delta == 0)
+					return;
+				// Odd while flushing, a load can't tell if the row it reads holds the delta yet.
+				counter.generation++;
+				deltas.put(counter, delta);
+				keys.put(key, delta);
+			}
+		});
+		boolean flushed = keys.isEmpty() || write(keys);
+		deltas.forEach((counter, delta) -> {
+			synchronized (counter) {
+				if (flushed) {
+					counter.flushed += delta;
+					counter.base += delta;
+				}
+				counter.generation++;
+				counter.notifyAll();
+			}
+		});
+		evict();
+		return flushed;
+	}
+
+	private boolean write(Map<String, Long> keys) {
+		long start = System.nanoTime();
+		try {
+			pool.execute(connection -> {
+				connection.setAutoCommit(false);
+				try {
+					write(connection, keys);
+					connection.commit();
+				} catch (SQLException e) {
+					connection.rollback();
+					throw e;
+				} finally {
+					connection.setAutoCommit(true);
+				}
+				return null;
+			});
+		} catch (SQLException e) {
+			metrics.error(Operation.FLUSH, e);
+			e.printStackTrace();
+			return false;
+		}
+		metrics.record(Operation.FLUSH, start);
+		metrics.batch(keys.size());
+		return true;
+	}
+
+	// Drops the counters that are flushed and idle, so counters of players or blocks don't stay for the life of the server.
+	private void evict() {
+		long now = System.currentTimeMillis();
+		counters.forEach((key, counter) -> {
+			if (now - counter.used < IDLE)
+				return;
+			synchronized (counter) {
+				// Marked before checking, an add either sees the mark or it's delta is seen here.
+				counter.evicted = true;
+				if (counter.adder.sum() == counter.flushed)
+					counters.remove(key, counter);
+				else
+					counter.evicted = false;
+			}
+		});
+	}
+
+	private void write(Connection connection, Map<String, Long> keys) throws SQLException {
+		try (PreparedStatement update = connection.prepareStatement(dialect.update.replace("%table", tablename))) {
+			for (Map.Entry<String, Long> entry : keys.entrySet()) {
+				if (dialect == Dialect.MYSQL) {
+					update.setString(1, entry.getKey());
+					update.setLong(2, entry.getValue());
+				} else {
+					update.setLong(1, entry.getValue());
+					update.setString(2, entry.getKey());
+				}
+				update.addBatch();
+			}
+			int[] counts = update.executeBatch();
+			if (dialect.insert == null)
+				return;
+			// Keys that had no row yet are inserted with their delta.
+			try (PreparedStatement insert = connection.prepareStatement(dialect.insert.replace("%table", tablename))) {
+				int i = 0;
+				boolean inserts = false;
+				for (Map.Entry<String, Long> entry : keys.entrySet()) {
+					if (counts[i++] != 0)
+						continue;
+					insert.setString(1, entry.getKey());
+					insert.setLong(2, entry.getValue());
+					insert.addBatch();
+					inserts = true;
+				}
+				if (inserts)
+					insert.executeBatch();
+			}
+		}
+	}
+
+	// Loads without holding the store, only waiting on a flush of this counter.
+	private void load(String key, Counter counter) {
+		long start = System.nanoTime();
+		while (true) {
+			long generation;
+			synchronized (counter) {
+				if (counter.loaded)
+					return;
+				try {
+					while (counter.generation % 2 != 0)
+						counter.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new DatabaseUnavailableException("Interrupted loading the counter " + key + " of table " + tablename, e);
+				}
+				generation = counter.generation;
+			}
+			long value;
+			try {
+				value = pool.execute(connection -> {
+					try (PreparedStatement statement = connection.prepareStatement("SELECT `value` FROM %table WHERE `id` = ?;".replace("%table", tablename))) {
+						statement.setString(1, key);
+						try (ResultSet result = statement.executeQuery()) {
+							return result.next() ? result.getLong("value") : 0L;
+						}
+					}
+				});
+			} catch (SQLException e) {
+				metrics.error(Operation.GET, e);
+				throw new DatabaseUnavailableException("Couldn't load the counter " + key + " of table " + tablename, e);
+			}
+			synchronized (counter) {
+				// A flush of the counter started while reading, the row may or may not hold it's delta.
+				if (counter.generation != generation)
+					continue;
+				// The row already holds everything flushed.
+				counter.base = value;
+				counter.loaded = true;
+			}
+			metrics.record(Operation.GET, start);
+			return;
+		}
+	}
+
+	/**
+	 * @return The StorageMetrics of the loads and flushes of the store.
+	 */
+	public StorageMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Flushes the remaining deltas, the connections are closed if the store owns them.
+	 */
+	public void close() {
+		flusher.cancel(false);
+		flush();
+		if (owned)
+			pool.close();
+	}
+
+	private static class Counter {
+
+		private final LongAdder adder = new LongAdder();
+		// Guarded by the counter, the total of the adder already stored, the stored value and the flushes started and finished.
+		private long flushed, base, generation;
+		private volatile boolean loaded, evicted;
+		private volatile long used = System.currentTimeMillis();
+
+	}
+
+}
@@ -2,23 +2,59 @@ package com.sitrica.core.database;
 
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
 
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.inventory.ItemStack;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.sitrica.core.SourPlugin;
+import com.sitrica.core.database.StorageMetrics.Operation;
 import com.sitrica.core.database.serializers.ItemStackSerializer;
 import com.sitrica.core.database.serializers.LocationSerializer;
+import com.sitrica.core.messaging.Formatting;
+import com.sitrica.core.utils.KeyedExecutor;
 
 public abstract class Database<T> {
 
+	// The rows read at once by scans, see selectPage.
+	protected static final int SCAN_PAGE = 1000;
+
+	protected final List<RankedIndex<T>> indexes = new CopyOnWriteArrayList<>();
+	protected final StorageMetrics metrics = new StorageMetrics();
+	private final Set<CompletableFuture<Void>> writes = ConcurrentHashMap.newKeySet();
+	private final Object barrier = new Object();
+	// The writes submitted while a clear waits for the writes before it, null when no clear is waiting.
+	private List<Runnable> deferred;
+	protected KeyedExecutor executor = KeyedExecutor.getCommon();
+	protected BlockingWatchdog watchdog;
+	protected SourPlugin instance;
 	protected final Gson gson;
+	protected KeyFilter keyFilter;
 
 	public Database(Map<Type, Serializer<?>> serializers) {
 		GsonBuilder builder = new GsonBuilder()
+				.registerTypeAdapterFactory(new StreamSerializerFactory())
 				.registerTypeAdapter(ItemStack.class, new ItemStackSerializer())
 				.registerTypeAdapter(Location.class, new LocationSerializer())
 				.excludeFieldsWithModifiers(Modifier.TRANSIENT, Modifier.STATIC)
@@ -30,6 +66,7 @@ public abstract class Database<T> {
 
 	public Database() {
 		gson = new GsonBuilder()
+				.registerTypeAdapterFactory(new StreamSerializerFactory())
 				.registerTypeAdapter(ItemStack.class, new ItemStackSerializer())
 				.registerTypeAdapter(Location.class, new LocationSerializer())
 				.excludeFieldsWithModifiers(Modifier.TRANSIENT, Modifier.STATIC)
@@ -40,18 +77,432 @@ public abstract class Database<T> {
 
 	public abstract void close();
 
+	/**
+	 * Keep an in memory Bloom filter of the keys to answer definite misses without a query.
+	 * The keys are scanned in the background, until then every key is queried as normal.
+	 * 
+	 * @param expectedKeys The amount of keys the filter should be sized for at least.
+	 * @param falsePositiveRate The chance of a missing key still being queried, e.g: 0.01
+	 * @param rebuild The milliseconds between rebuilds that clear deleted keys, 0 or lower to never rebuild.
+	 * @return The KeyFilter for the metrics of the filter.
+	 */
+	public KeyFilter enableKeyFilter(int expectedKeys, double falsePositiveRate, long rebuild) {
+		disableKeyFilter();
+		KeyFilter filter = new KeyFilter(this::scanKeys, this::getPendingWrites, expectedKeys, falsePositiveRate);
+		filter.start(rebuild);
+		this.keyFilter = filter;
+		return filter;
+	}
+
+	public void disableKeyFilter() {
+		if (keyFilter != null)
+			keyFilter.stop();
+		keyFilter = null;
+	}
+
+	/**
+	 * @return The KeyFilter of this database, null if it's not enabled.
+	 */
+	public KeyFilter getKeyFilter() {
+		return keyFilter;
+	}
+
+	/**
+	 * @param key The key as it's stored.
+	 * @return false if the key is definitely not in the database.
+	 */
+	protected boolean mightContain(String key) {
+		KeyFilter filter = keyFilter;
+		if (filter == null)
+			return true;
+		boolean result = filter.mightContain(key);
+		metrics.cache("key-filter", !result);
+		return result;
+	}
+
+	/**
+	 * Adds a key being stored to the key filter if it's enabled.
+	 * 
+	 * @param key The key as it's stored.
+	 */
+	protected void indexKey(String key) {
+		KeyFilter filter = keyFilter;
+		if (filter != null)
+			filter.put(key);
+	}
+
+	/**
+	 * Rank the values of this database by a score, kept up to date on every put.
+	 * The ranking is built from a single pass over the database on the executor, it returns straight away
+	 * and {@link RankedIndex#getReady()} completes once it's built.
+	 * 
+	 * @param scorer Grabs the score of a value, higher scores rank first.
+	 * @return The RankedIndex to query the ranking from.
+	 */
+	public RankedIndex<T> addRankedIndex(ToDoubleFunction<T> scorer) {
+		RankedIndex<T> index = new RankedIndex<>(scorer);
+		indexes.add(index);
+		CompletableFuture<Void> ready = executor.execute(index, () -> index.rebuild(this));
+		ready.whenComplete((result, throwable) -> {
+			if (throwable != null)
+				throwable.printStackTrace();
+		});
+		index.setReady(ready);
+		return index;
+	}
+
+	public void removeRankedIndex(RankedIndex<T> index) {
+		indexes.remove(index);
+	}
+
+	/**
+	 * Updates the ranked indexes with a value being stored.
+	 * 
+	 * @param key The key as it's stored.
+	 * @param value The value being stored, null for a delete.
+	 */
+	protected void rank(String key, T value) {
+		for (RankedIndex<T> index : indexes)
+			index.update(key, value);
+	}
+
+	/**
+	 * Updates the ranked indexes with serialized data being stored, only deserializing it if there are any.
+	 * 
+	 * @param key The key as it's stored.
+	 * @param serialized The data being stored, null for a delete.
+	 */
+	@SuppressWarnings("unchecked")
+	protected void rankSerialized(String key, String serialized) {
+		if (indexes.isEmpty())
+			return;
+		try {
+			rank(key, serialized == null ? null : (T) deserialize(serialized, getType()));
+		} catch (JsonSyntaxException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sets the executor the writes of this database run on, writes of the same key stay in order.
+	 * 
+	 * @param executor The KeyedExecutor to run the writes on.
+	 */
+	public void setExecutor(KeyedExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Runs a write after the writes submitted before it for the same key of this database, and after any clear submitted before it.
+	 * 
+	 * @param key The key written.
+	 * @param write The write to run.
+	 */
+	protected void submitWrite(String key, Runnable write) {
+		submitWrite(key, false, write);
+	}
+
+	/**
+	 * Runs a write after the writes submitted before it for the same key of this database, and after any clear submitted before it.
+	 * 
+	 * @param key The key written, as it's stored.
+	 * @param index If the key is being stored, it's added to the key filter along with queueing the write
+	 * so a rebuild of the filter either waits for the write or sees the key.
+	 * @param write The write to run.
+	 */
+	protected void submitWrite(String key, boolean index, Runnable write) {
+		metrics.queued();
+		synchronized (barrier) {
+			if (index)
+				indexKey(key);
+			if (deferred != null)
+				deferred.add(() -> enqueue(new SimpleImmutableEntry<>(this, key), write));
+			else
+				enqueue(new SimpleImmutableEntry<>(this, key), write);
+		}
+	}
+
+	/**
+	 * Runs a write to the whole table once every write submitted before it finished,
+	 * the writes submitted after it wait until it's done.
+	 * 
+	 * @param clear The write to run.
+	 */
+	protected void submitClear(Runnable clear) {
+		metrics.queued();
+		synchronized (barrier) {
+			if (deferred != null)
+				deferred.add(() -> barrier(clear));
+			else
+				barrier(clear);
+		}
+	}
+
+	// Called holding the barrier lock.
+	private void barrier(Runnable clear) {
+		List<Runnable> waiting = new ArrayList<>();
+		deferred = waiting;
+		CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()]))
+				.handle((result, throwable) -> null)
+				// Async so a worker finishing the last write doesn't wait on the barrier lock.
+				.thenComposeAsync(result -> enqueue(this, clear))
+				.whenCompleteAsync((result, throwable) -> {
+					synchronized (barrier) {
+						deferred = null;
+						// Writes after another clear wait for that clear in turn.
+						for (Runnable runnable : waiting) {
+							if (deferred != null) {
+								deferred.add(runnable);
+								continue;
+							}
+							try {
+								runnable.run();
+							} catch (RuntimeException e) {
+								e.printStackTrace();
+							}
+						}
+					}
+				});
+	}
+
+	private CompletableFuture<Void> enqueue(Object lane, Runnable write) {
+		CompletableFuture<Void> future;
+		try {
+			future = executor.execute(lane, () -> {
+				try {
+					write.run();
+				} finally {
+					metrics.dequeued();
+				}
+			});
+		} catch (RuntimeException e) {
+			metrics.dequeued();
+			throw e;
+		}
+		writes.add(future);
+		future.whenComplete((result, throwable) -> writes.remove(future));
+		return future;
+	}
+
+	/**
+	 * Grab a future of every write submitted so far, including the ones waiting for a clear.
+	 * 
+	 * @return A CompletableFuture completed once the writes submitted before this call ran.
+	 */
+	public CompletableFuture<Void> getPendingWrites() {
+		CompletableFuture<Void> marker = new CompletableFuture<>();
+		synchronized (barrier) {
+			if (deferred != null)
+				deferred.add(() -> marker.complete(null));
+			else
+				marker.complete(null);
+		}
+		// The marker runs once the writes before it were queued, so every write is in the set by then.
+		return marker.thenCompose(result -> CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).handle((r, throwable) -> null));
+	}
+
+	/**
+	 * Waits for the writes submitted so far, databases call this when closing so plugins not waiting on the executor don't lose writes.
+	 * 
+	 * @param timeout The milliseconds to wait for.
+	 * @return true if every write ran within the timeout.
+	 */
+	protected boolean awaitWrites(long timeout) {
+		try {
+			getPendingWrites().get(timeout, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * @param instance The SourPlugin the database belongs to, for console messages.
+	 */
+	public void setInstance(SourPlugin instance) {
+		this.instance = instance;
+	}
+
+	/**
+	 * Sends a message to the console through the plugin of the database if it has one.
+	 * 
+	 * @param message The message to send.
+	 */
+	protected void consoleMessage(String message) {
+		SourPlugin instance = this.instance;
+		if (instance != null)
+			instance.consoleMessage(message);
+		else
+			Bukkit.getConsoleSender().sendMessage(Formatting.color(message));
+	}
+
+	/**
+	 * @param watchdog The BlockingWatchdog to record calls on the main thread with, null to not record them.
+	 */
+	public void setWatchdog(BlockingWatchdog watchdog) {
+		this.watchdog = watchdog;
+	}
+
+	/**
+	 * Records the latency of a finished operation, and reports it to the watchdog if it blocked the main thread.
+	 * 
+	 * @param operation The operation that finished.
+	 * @param start The {@link System#nanoTime()} the operation started at.
+	 */
+	protected void record(Operation operation, long start) {
+		metrics.record(operation, start);
+		BlockingWatchdog watchdog = this.watchdog;
+		if (watchdog != null)
+			watchdog.record(getTableName(), operation, start);
+	}
+
+	/**
+	 * @return The name of the table of this database.
+	 */
+	public String getTableName() {
+		return getClass().getSimpleName();
+	}
+
+	/**
+	 * @return The StorageMetrics of the operations on this database.
+	 */
+	public StorageMetrics getMetrics() {
+		return metrics;
+	}
+
 	public abstract void put(String key, T value);
 
+	/**
+	 * @param key The key to grab the value of.
+	 * @param def The value returned if the key isn't present.
+	 * @return The value of the key, or the default if it isn't present.
+	 * @throws DatabaseUnavailableException If the database couldn't be read, so it isn't mistaken for an absent key.
+	 */
 	public abstract T get(String key, T def);
 
+	/**
+	 * @param key The key to check.
+	 * @return If the key is present.
+	 * @throws DatabaseUnavailableException If the database couldn't be read, so it isn't mistaken for an absent key.
+	 */
 	public abstract boolean has(String key);
 
 	public abstract Set<String> getKeys();
 
+	/**
+	 * Reads a page of the rows of a table ordered by key. Scans read a page at a time so the connection
+	 * is back in the pool before the rows are consumed, consumers can read other tables of the same pool.
+	 * 
+	 * @param connection The connection to read with.
+	 * @param table The name of the table.
+	 * @param after The key the page starts after, an empty String for the first page.
+	 * @return The keys of the page with their serialized data, in order.
+	 * @throws SQLException If the page couldn't be read.
+	 */
+	protected static Map<String, String> selectPage(Connection connection, String table, String after) throws SQLException {
+		Map<String, String> page = new LinkedHashMap<>();
+		try (PreparedStatement statement = connection.prepareStatement("SELECT `id`, `data` FROM %table WHERE `id` > ? ORDER BY `id` LIMIT ?;".replace("%table", table))) {
+			statement.setString(1, after);
+			statement.setInt(2, SCAN_PAGE);
+			try (ResultSet result = statement.executeQuery()) {
+				while (result.next())
+					page.put(result.getString("id"), result.getString("data"));
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Grab every key like {@link #getKeys()}, but throwing if the keys couldn't be read instead of returning fewer of them.
+	 * 
+	 * @return Every key as it's stored.
+	 * @throws SQLException If the keys couldn't be read.
+	 */
+	protected Set<String> scanKeys() throws SQLException {
+		return getKeys();
+	}
+
+	/**
+	 * @return The Type of the values stored in this database.
+	 */
+	public abstract Type getType();
+
+	/**
+	 * Grab the raw serialized data stored under the key without deserializing it.
+	 * 
+	 * @param key The key to grab the data of.
+	 * @return The serialized data, or null if the key isn't present.
+	 * @throws DatabaseUnavailableException If the database couldn't be read, so it isn't mistaken for an absent key.
+	 */
+	public abstract String getSerialized(String key);
+
+	/**
+	 * Store already serialized data under the key without running it through Gson.
+	 * 
+	 * @param key The key to store the data under.
+	 * @param serialized The serialized data, null deletes the key.
+	 */
+	public abstract void putSerialized(String key, String serialized);
+
 	public T get(String key) {
 		return get(key, null);
 	}
 
+	/**
+	 * Grab a handle to the value of the key that only deserializes when accessed.
+	 * 
+	 * @param key The key to grab the value of.
+	 * @return The LazyValue handle, or null if the key isn't present.
+	 */
+	public LazyValue<T> getLazy(String key) {
+		String serialized = getSerialized(key);
+		if (serialized == null)
+			return null;
+		return new LazyValue<>(this, serialized);
+	}
+
+	/**
+	 * Store a handle grabbed from {@link #getLazy(String)}, the data is stored as is.
+	 * 
+	 * @param key The key to store the value under.
+	 * @param value The LazyValue handle, null deletes the key.
+	 */
+	public void putLazy(String key, LazyValue<T> value) {
+		putSerialized(key, value == null ? null : value.getSerialized());
+	}
+
+	/**
+	 * Copies every key of this database into another database without deserializing any values.
+	 * 
+	 * @param database The Database to copy into.
+	 */
+	public void copyTo(Database<T> database) {
+		for (String key : getKeys()) {
+			String serialized = getSerialized(key);
+			if (serialized != null)
+				database.putSerialized(key, serialized);
+		}
+	}
+
+	/**
+	 * Streams every key with it's serialized data, implementations read the table in a single pass where they can.
+	 * 
+	 * @param consumer The consumer of the keys as they're stored and their serialized data.
+	 * @throws DatabaseUnavailableException If the database couldn't be read.
+	 */
+	public void forEachSerialized(BiConsumer<String, String> consumer) {
+		for (String key : getKeys()) {
+			String serialized = getSerialized(key);
+			if (serialized != null)
+				consumer.accept(key, serialized);
+		}
+	}
+
 	public void delete(String key) {
 		put(key, null);
 	}
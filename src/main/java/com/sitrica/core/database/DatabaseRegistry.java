@@ -0,0 +1,415 @@
+package com.sitrica.core.database;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.inventory.ItemStack;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.sitrica.core.SourPlugin;
+import com.sitrica.core.database.CounterStore.Dialect;
+import com.sitrica.core.database.ReplicaRouter.Replica;
+import com.sitrica.core.database.StorageMetrics.Histogram;
+import com.sitrica.core.database.StorageMetrics.Operation;
+import com.sitrica.core.database.serializers.DedupItemStackSerializer;
+import com.sitrica.core.utils.IntervalUtils;
+
+/**
+ * The databases of a plugin, looked up by their table name.
+ * <p>
+ * Every table of the plugin shares a single {@link ConnectionPool} to the configured engine,
+ * so the amount of connections scales with concurrent use instead of with the amount of tables.
+ * Grab it from {@link SourPlugin#getDatabaseRegistry()}.
+ * <p>
+ * 	database:
+ * 	    # The maximum amount of connections shared by every table.
+ * 	    pool-size: 4
+ * 	    # Milliseconds to wait for a free connection before failing.
+ * 	    pool-timeout: 30000
+ * 	    metrics:
+ * 	        # The interval to write the storage metrics of every table to the metrics folder, remove to disable.
+ * 	        dump: 5 minutes
+ * 	        # CSV appends a row per table and operation to storage.csv, JSON overwrites storage.json. Latencies are in microseconds.
+ * 	        format: CSV
+ * 	    # Reports Database calls blocking the main thread, see BlockingWatchdog.
+ * 	    watchdog:
+ * 	        enabled: false
+ * 	        threshold: 5
+ * 	        sample-rate: 16
+ */
+public class DatabaseRegistry {
+
+	private static final ScheduledExecutorService DUMPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SourCore Metrics Dump");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Map<String, Database<?>> databases = new HashMap<>();
+	private final Map<String, CounterStore> counters = new HashMap<>();
+	private DedupItemStackSerializer itemSerializer;
+	private final BlockingWatchdog watchdog;
+	private ConnectionPool mysql, h2;
+	private final SourPlugin instance;
+	private ReplicaRouter replicas;
+	private boolean routed;
+	private ScheduledFuture<?> dump;
+	private final boolean json;
+
+	public DatabaseRegistry(SourPlugin instance) {
+		this.instance = instance;
+		ConfigurationSection section = getSection();
+		this.json = section.getString("metrics.format", "CSV").equalsIgnoreCase("JSON");
+		if (section.isSet("metrics.dump")) {
+			long interval = IntervalUtils.getMilliseconds(section.getString("metrics.dump"));
+			if (interval > 0)
+				dump = DUMPER.scheduleWithFixedDelay(this::dumpMetrics, interval, interval, TimeUnit.MILLISECONDS);
+		}
+		if (section.getBoolean("watchdog.enabled", false))
+			watchdog = new BlockingWatchdog(section.getLong("watchdog.threshold", 5), section.getInt("watchdog.sample-rate", 16), instance::debugMessage);
+		else
+			watchdog = null;
+	}
+
+	public <T> Database<T> getDatabase(String table, Type type) {
+		return getDatabase(table, type, new HashMap<>());
+	}
+
+	/**
+	 * Grab the database of a table, creating it in the configured engine if it doesn't exist yet.
+	 * If MySQL can't be reached the table falls back to H2.
+	 *
+	 * @param <T> The type of the values of the table.
+	 * @param table The name of the table.
+	 * @param type The type of the values of the table.
+	 * @param serializers The serializers of the values, only used when the database is created.
+	 * @return The Database of the table, null if it couldn't be created.
+	 * @throws IllegalArgumentException If the table was already created for another type.
+	 */
+	public synchronized <T> Database<T> getDatabase(String table, Type type, Map<Type, Serializer<?>> serializers) {
+		Database<T> existing = getExisting(table, type);
+		if (existing != null)
+			return existing;
+		ConfigurationSection section = getSection();
+		// The item side table is a String database, which can't hold items itself.
+		if (type != String.class)
+			serializers = applyItemDedup(section, serializers);
+		Database<T> database = null;
+		if (!isH2(section)) {
+			String address = section.getString("mysql.address", "localhost");
+			String user = section.getString("mysql.user", "root");
+			int failures = section.getInt("mysql.circuit-breaker.failures", 3);
+			long retry = IntervalUtils.getMilliseconds(section.getString("mysql.circuit-breaker.retry", "5 seconds"));
+			File journal = new File(instance.getDataFolder(), "journal");
+			try {
+				database = new MySQLDatabase<T>(getMySQLPool(section), table, type, serializers, journal, failures, retry)
+						.setReplicas(getReplicaRouter(section));
+				instance.debugMessage("MySQL connection " + address + " was a success!");
+			} catch (SQLException exception) {
+				instance.consoleMessage("&cMySQL connection failed!");
+				instance.consoleMessage("Address: " + address + " with user: " + user);
+				instance.consoleMessage("Reason: " + exception.getMessage());
+				instance.consoleMessage("Attempting to use H2 instead...");
+			}
+		}
+		if (database == null)
+			return getFileDatabase(table, type, serializers);
+		configure(section, database);
+		databases.put(table.toLowerCase(Locale.US), database);
+		return database;
+	}
+
+	/**
+	 * Grab the database of a table, creating it in H2 regardless of the configured engine if it doesn't exist yet.
+	 *
+	 * @param <T> The type of the values of the table.
+	 * @param table The name of the table.
+	 * @param type The type of the values of the table.
+	 * @param serializers The serializers of the values, only used when the database is created.
+	 * @return The Database of the table, null if it couldn't be created.
+	 * @throws IllegalArgumentException If the table was already created for another type.
+	 */
+	public synchronized <T> Database<T> getFileDatabase(String table, Type type, Map<Type, Serializer<?>> serializers) {
+		Database<T> existing = getExisting(table, type);
+		if (existing != null)
+			return existing;
+		ConfigurationSection section = getSection();
+		if (type != String.class)
+			serializers = applyItemDedup(section, serializers);
+		try {
+			H2Settings settings = H2Settings.fromConfiguration(section);
+			// Without a shared connection every table opens it's own to the engine.
+			ConnectionPool pool = settings.isShared() ? getH2Pool(settings) : null;
+			Database<T> database = new H2Database<>(instance, table, type, serializers, settings, pool);
+			instance.debugMessage("Using " + (settings.isMemory() ? "in memory " : "") + "H2 database for " + table + " data");
+			configure(section, database);
+			databases.put(table.toLowerCase(Locale.US), database);
+			return database;
+		} catch (ClassNotFoundException | SQLException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Database<T> getExisting(String table, Type type) {
+		Database<?> existing = databases.get(table.toLowerCase(Locale.US));
+		if (existing == null)
+			return null;
+		if (!existing.getType().equals(type))
+			throw new IllegalArgumentException("The table " + table + " already stores " + existing.getType().getTypeName() + ", not " + type.getTypeName());
+		return (Database<T>) existing;
+	}
+
+	/**
+	 * Grab a store of numeric counters in the configured engine, see {@link CounterStore}.
+	 *
+	 * @param table The name of the table of the counters.
+	 * @return The CounterStore of the table.
+	 * @throws SQLException If the database couldn't be reached.
+	 */
+	public synchronized CounterStore getCounterStore(String table) throws SQLException {
+		CounterStore store = counters.get(table.toLowerCase(Locale.US));
+		if (store != null)
+			return store;
+		ConfigurationSection section = getSection();
+		long flush = IntervalUtils.getMilliseconds(section.getString("counters-flush", "5 seconds"));
+		if (isH2(section)) {
+			try {
+				Class.forName("org.h2.Driver");
+			} catch (ClassNotFoundException e) {
+				throw new SQLException("The H2 driver isn't available", e);
+			}
+			store = new CounterStore(getH2Pool(H2Settings.fromConfiguration(section)), table, Dialect.H2, flush);
+		} else {
+			store = new CounterStore(getMySQLPool(section), table, Dialect.MYSQL, flush);
+		}
+		counters.put(table.toLowerCase(Locale.US), store);
+		return store;
+	}
+
+	/**
+	 * @param table The name of the table.
+	 * @return The Database of the table, null if it wasn't created.
+	 */
+	public synchronized Database<?> getExisting(String table) {
+		return databases.get(table.toLowerCase(Locale.US));
+	}
+
+	/**
+	 * @return Every Database created for the plugin.
+	 */
+	public synchronized Collection<Database<?>> getDatabases() {
+		return new ArrayList<>(databases.values());
+	}
+
+	/**
+	 * @return The StorageMetrics of every database and counter store by their table name.
+	 */
+	public synchronized Map<String, StorageMetrics> getMetrics() {
+		Map<String, StorageMetrics> metrics = new LinkedHashMap<>();
+		databases.forEach((table, database) -> metrics.put(table, database.getMetrics()));
+		counters.forEach((table, store) -> metrics.putIfAbsent(table, store.getMetrics()));
+		return metrics;
+	}
+
+	/**
+	 * @return The BlockingWatchdog of the databases, null if it isn't enabled.
+	 */
+	public BlockingWatchdog getWatchdog() {
+		return watchdog;
+	}
+
+	/**
+	 * @return The ConnectionPools of the engines in use.
+	 */
+	public synchronized Collection<ConnectionPool> getPools() {
+		Collection<ConnectionPool> pools = new ArrayList<>();
+		if (mysql != null)
+			pools.add(mysql);
+		if (h2 != null)
+			pools.add(h2);
+		return pools;
+	}
+
+	/**
+	 * @return The read replicas of the MySQL engine, empty if none are configured.
+	 */
+	public synchronized List<Replica> getReplicas() {
+		return replicas == null ? Collections.emptyList() : replicas.getReplicas();
+	}
+
+	/**
+	 * Writes the storage metrics off the calling thread, see {@link #dumpMetrics()}.
+	 *
+	 * @return A CompletableFuture completed once the metrics were written.
+	 */
+	public CompletableFuture<Void> dumpMetricsAsync() {
+		return CompletableFuture.runAsync(this::dumpMetrics, DUMPER);
+	}
+
+	/**
+	 * Writes the storage metrics of every table to the metrics folder of the plugin,
+	 * in the format configured under database.metrics.format.
+	 */
+	public void dumpMetrics() {
+		Map<String, StorageMetrics> metrics = getMetrics();
+		if (metrics.isEmpty())
+			return;
+		File folder = new File(instance.getDataFolder(), "metrics");
+		if (!folder.exists())
+			folder.mkdirs();
+		long time = System.currentTimeMillis();
+		try {
+			if (json) {
+				JsonObject object = new JsonObject();
+				object.addProperty("time", time);
+				JsonObject tables = new JsonObject();
+				metrics.forEach((table, metric) -> tables.add(table, metric.toJson()));
+				object.add("tables", tables);
+				String output = new GsonBuilder().setPrettyPrinting().serializeNulls().create().toJson(object);
+				Files.write(new File(folder, "storage.json").toPath(), output.getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			File file = new File(folder, "storage.csv");
+			boolean header = !file.exists();
+			try (Writer writer = new FileWriter(file, true)) {
+				if (header)
+					writer.write("time,table,operation,count,errors,mean,p50,p99,max\n");
+				for (Map.Entry<String, StorageMetrics> entry : metrics.entrySet()) {
+					for (Operation operation : Operation.values()) {
+						Histogram latency = entry.getValue().getLatency(operation);
+						long errors = entry.getValue().getErrors(operation);
+						if (latency.getCount() == 0 && errors == 0)
+							continue;
+						writer.write(time + "," + entry.getKey() + "," + operation.name().toLowerCase(Locale.US) + "," + latency.getCount() + "," + errors + ","
+								+ String.format(Locale.US, "%.1f", latency.getMean()) + "," + latency.getPercentile(0.5) + "," + latency.getPercentile(0.99) + "," + latency.getMax() + "\n");
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes every database, counter store and the connection pools.
+	 */
+	public synchronized void close() {
+		if (dump != null) {
+			dump.cancel(false);
+			dump = null;
+			dumpMetrics();
+		}
+		counters.values().forEach(CounterStore::close);
+		counters.clear();
+		databases.values().forEach(Database::close);
+		databases.clear();
+		if (replicas != null)
+			replicas.close();
+		if (mysql != null)
+			mysql.close();
+		if (h2 != null)
+			h2.close();
+		replicas = null;
+		routed = false;
+		mysql = null;
+		h2 = null;
+	}
+
+	/**
+	 * Applies the optional features of the database section to a new database.
+	 *
+	 * @param section The database configuration section.
+	 * @param database The database to configure.
+	 */
+	protected void configure(ConfigurationSection section, Database<?> database) {
+		database.setInstance(instance);
+		database.setExecutor(instance.getKeyedExecutor());
+		database.setWatchdog(watchdog);
+		if (section.getBoolean("key-filter.enabled", false)) {
+			int expected = section.getInt("key-filter.expected-keys", 10000);
+			double rate = section.getDouble("key-filter.false-positive-rate", 0.01);
+			long rebuild = IntervalUtils.getMilliseconds(section.getString("key-filter.rebuild", "30 minutes"));
+			database.enableKeyFilter(expected, rate, rebuild);
+		}
+	}
+
+	/**
+	 * Serializes ItemStacks through the item side table if item-dedup is enabled.
+	 *
+	 * @param section The database configuration section.
+	 * @param serializers The serializers of the database being created.
+	 * @return The serializers to create the database with.
+	 */
+	protected Map<Type, Serializer<?>> applyItemDedup(ConfigurationSection section, Map<Type, Serializer<?>> serializers) {
+		if (!section.getBoolean("item-dedup.enabled", false) || serializers.containsKey(ItemStack.class))
+			return serializers;
+		if (itemSerializer == null) {
+			Database<String> items = getDatabase(section.getString("item-dedup.table", "Items"), String.class);
+			itemSerializer = new DedupItemStackSerializer(items, section.getInt("item-dedup.cache-size", 1000));
+		}
+		Map<Type, Serializer<?>> applied = new HashMap<>(serializers);
+		applied.put(ItemStack.class, itemSerializer);
+		return applied;
+	}
+
+	private ConnectionPool getMySQLPool(ConfigurationSection section) {
+		if (mysql != null)
+			return mysql;
+		String url = "jdbc:mysql://" + section.getString("mysql.address", "localhost") + "/" + section.getString("mysql.name", "username");
+		mysql = new ConnectionPool(url, section.getString("mysql.user", "root"), section.getString("mysql.password", "1234"),
+				section.getInt("pool-size", 4), section.getLong("pool-timeout", 30000));
+		return mysql;
+	}
+
+	// Every table reads through the same replicas, so they share one router like they share the primary pool.
+	private ReplicaRouter getReplicaRouter(ConfigurationSection section) {
+		if (routed)
+			return replicas;
+		replicas = ReplicaRouter.fromConfiguration(section.getConfigurationSection("mysql"), instance::consoleMessage);
+		routed = true;
+		return replicas;
+	}
+
+	private ConnectionPool getH2Pool(H2Settings settings) {
+		if (h2 != null)
+			return h2;
+		ConfigurationSection section = getSection();
+		h2 = new ConnectionPool(settings.getUrl(instance), null, null, section.getInt("pool-size", 4), section.getLong("pool-timeout", 30000));
+		return h2;
+	}
+
+	private boolean isH2(ConfigurationSection section) {
+		return section.getString("type", "H2").toUpperCase(Locale.US).startsWith("H2");
+	}
+
+	private ConfigurationSection getSection() {
+		ConfigurationSection section = instance.getConfig().getConfigurationSection("database");
+		// Without a section every table uses the H2 defaults.
+		return section == null ? new MemoryConfiguration() : section;
+	}
+
+}
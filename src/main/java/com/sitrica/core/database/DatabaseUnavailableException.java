@@ -0,0 +1,19 @@
+package com.sitrica.core.database;
+
+/**
+ * Thrown by reads of a {@link Database} that couldn't reach it's storage,
+ * so a failed read isn't mistaken for a key that isn't present.
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 6318023472211592937L;
+
+	public DatabaseUnavailableException(String message) {
+		super(message);
+	}
+
+	public DatabaseUnavailableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,401 @@
+package com.sitrica.core.database;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Online backups of an H2 database file, taken while the server keeps running.
+ * <p>
+ * Full backups use H2's BACKUP TO, which writes a consistent zip of the database while it's open.
+ * Between full backups only the rows written since the last backup are saved into gzipped incremental snapshots.
+ * Both are written into the backups folder at a limited rate so large datasets don't stall the disk, full backups are
+ * taken into the temporary directory first since H2 can't be throttled. Every backup is taken on a low priority thread.
+ * <p>
+ * Restoring is extracting the latest full backup with org.h2.tools.Restore and then
+ * replaying the incremental snapshots taken after it in order with {@link #restore(File, Function)}.
+ * Only the latest full backups are kept, incremental snapshots older than the oldest kept full backup are deleted with it.
+ */
+public class H2Backup {
+
+	private static final ScheduledExecutorService BACKUPS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SourCore H2 Backup");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final byte DELETE = 0, PUT = 1, CLEAR = 2;
+	private static final String FULL = "-full.zip", INCREMENTAL = "-incremental.gz";
+
+	// Backups shared between the tables of the same engine, with the amount of tables using them.
+	private static final Map<String, H2Backup> backups = new HashMap<>();
+	private static final Map<String, Integer> references = new HashMap<>();
+
+	// Both guarded by this.
+	private Map<String, Set<String>> changed = new HashMap<>();
+	private Set<String> cleared = new HashSet<>();
+
+	private final ScheduledFuture<?> incremental, full;
+	private final long throttle;
+	private final File folder;
+	private final String url;
+	private final int keep;
+	private volatile long lastFull, lastIncremental;
+
+	/**
+	 * @param url The JDBC url of the H2 database.
+	 * @param folder The folder to store the backups in.
+	 * @param incremental The milliseconds between incremental snapshots, 0 or lower for only full backups.
+	 * @param full The milliseconds between full backups.
+	 * @param keep The amount of full backups to keep.
+	 * @param throttle The bytes per second backups are written at, 0 or lower for no limit.
+	 */
+	public H2Backup(String url, File folder, long incremental, long full, int keep, long throttle) {
+		this.keep = Math.max(1, keep);
+		this.throttle = throttle;
+		this.folder = folder;
+		this.url = url;
+		folder.mkdirs();
+		long last = getLastFullFile() == null ? 0 : getLastFullFile().lastModified();
+		long delay = Math.max(0, last + full - System.currentTimeMillis());
+		this.full = BACKUPS.scheduleWithFixedDelay(this::backup, delay, Math.max(full, 1000), TimeUnit.MILLISECONDS);
+		if (incremental > 0)
+			this.incremental = BACKUPS.scheduleWithFixedDelay(this::snapshot, incremental, incremental, TimeUnit.MILLISECONDS);
+		else
+			this.incremental = null;
+	}
+
+	/**
+	 * Grab the backup of an engine, starting it for the first table.
+	 *
+	 * @param url The JDBC url of the H2 database.
+	 * @param settings The settings holding the backup configuration.
+	 * @param folder The folder to store the backups in.
+	 * @return The H2Backup of the engine.
+	 */
+	static H2Backup acquire(String url, H2Settings settings, File folder) {
+		synchronized (backups) {
+			H2Backup backup = backups.computeIfAbsent(url, u -> new H2Backup(u, folder, settings.getBackupIncremental(),
+					settings.getBackupFull(), settings.getBackupKeep(), settings.getBackupThrottle()));
+			references.merge(url, 1, Integer::sum);
+			return backup;
+		}
+	}
+
+	/**
+	 * Stops the backup of an engine once the last table using it closes.
+	 *
+	 * @param url The JDBC url of the H2 database.
+	 */
+	static void release(String url) {
+		synchronized (backups) {
+			int remaining = references.merge(url, -1, Integer::sum);
+			if (remaining > 0)
+				return;
+			references.remove(url);
+			H2Backup backup = backups.remove(url);
+			if (backup != null)
+				backup.close();
+		}
+	}
+
+	/**
+	 * Marks a row as written so it's part of the next incremental snapshot.
+	 * Called once the write is done, so the snapshot reads the new value.
+	 *
+	 * @param table The table of the row.
+	 * @param key The key of the row as it's stored.
+	 */
+	public synchronized void changed(String table, String key) {
+		changed.computeIfAbsent(table, t -> new LinkedHashSet<>()).add(key);
+	}
+
+	/**
+	 * Marks a table as cleared so the next incremental snapshot clears it before restoring it's rows.
+	 *
+	 * @param table The table that was cleared.
+	 */
+	public synchronized void cleared(String table) {
+		cleared.add(table);
+	}
+
+	/**
+	 * Takes a full backup with BACKUP TO and removes the backups past the amount to keep.
+	 */
+	public void backup() {
+		synchronized (this) {
+			// Anything written from here on is in the next incremental snapshot, rows written during the backup may be in both.
+			changed = new HashMap<>();
+			cleared = new HashSet<>();
+		}
+		File file = new File(folder, timestamp() + FULL);
+		// Copied under another name so a partial copy is never taken for the latest full backup.
+		File partial = new File(folder, file.getName() + ".part");
+		File temporary = null;
+		try {
+			temporary = File.createTempFile("sourcore-backup", ".zip");
+			try (Connection connection = DriverManager.getConnection(url);
+				PreparedStatement statement = connection.prepareStatement("BACKUP TO ?;")) {
+				statement.setString(1, temporary.getAbsolutePath());
+				statement.executeUpdate();
+			}
+			try (InputStream input = new FileInputStream(temporary);
+				OutputStream output = new ThrottledOutputStream(new FileOutputStream(partial), throttle)) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = input.read(buffer)) != -1)
+					output.write(buffer, 0, read);
+			}
+			if (!partial.renameTo(file))
+				throw new IOException("Couldn't rename " + partial.getName() + " to " + file.getName());
+			lastFull = System.currentTimeMillis();
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+			partial.delete();
+			return;
+		} finally {
+			if (temporary != null)
+				temporary.delete();
+		}
+		rotate();
+	}
+
+	/**
+	 * Saves the rows written since the last backup into an incremental snapshot.
+	 */
+	public void snapshot() {
+		snapshot(throttle);
+	}
+
+	/**
+	 * Saves the rows written since the last backup into an incremental snapshot.
+	 *
+	 * @param throttle The bytes per second to write the snapshot at, 0 or lower for no limit.
+	 */
+	private void snapshot(long throttle) {
+		Map<String, Set<String>> changed;
+		Set<String> cleared;
+		synchronized (this) {
+			if (this.changed.isEmpty() && this.cleared.isEmpty())
+				return;
+			changed = this.changed;
+			cleared = this.cleared;
+			this.changed = new HashMap<>();
+			this.cleared = new HashSet<>();
+		}
+		File file = new File(folder, timestamp() + INCREMENTAL);
+		try (Connection connection = DriverManager.getConnection(url);
+			DataOutputStream output = new DataOutputStream(new GZIPOutputStream(new ThrottledOutputStream(new BufferedOutputStream(new FileOutputStream(file)), throttle)))) {
+			for (String table : cleared) {
+				output.writeByte(CLEAR);
+				output.writeUTF(table);
+			}
+			for (Map.Entry<String, Set<String>> entry : changed.entrySet()) {
+				String table = entry.getKey();
+				try (PreparedStatement statement = connection.prepareStatement("SELECT `data` FROM %table WHERE `id` = ?;".replace("%table", table))) {
+					for (String key : entry.getValue()) {
+						statement.setString(1, key);
+						String data = null;
+						try (ResultSet result = statement.executeQuery()) {
+							if (result.next())
+								data = result.getString("data");
+						}
+						output.writeByte(data == null ? DELETE : PUT);
+						output.writeUTF(table);
+						output.writeUTF(key);
+						if (data != null) {
+							byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+							output.writeInt(bytes.length);
+							output.write(bytes);
+						}
+					}
+				}
+			}
+			lastIncremental = System.currentTimeMillis();
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+			file.delete();
+			// Keeps the rows for the next snapshot.
+			synchronized (this) {
+				changed.forEach((table, keys) -> this.changed.computeIfAbsent(table, t -> new LinkedHashSet<>()).addAll(keys));
+				this.cleared.addAll(cleared);
+			}
+		}
+	}
+
+	/**
+	 * Replays an incremental snapshot into the databases of it's tables.
+	 *
+	 * @param snapshot The incremental snapshot file.
+	 * @param tables Grabs the Database of a table name, null to skip the table.
+	 * @throws IOException If the snapshot couldn't be read.
+	 */
+	public static void restore(File snapshot, Function<String, Database<?>> tables) throws IOException {
+		try (DataInputStream input = new DataInputStream(new GZIPInputStream(new FileInputStream(snapshot)))) {
+			while (true) {
+				byte operation;
+				try {
+					operation = input.readByte();
+				} catch (EOFException e) {
+					return;
+				}
+				Database<?> database = tables.apply(input.readUTF());
+				if (operation == CLEAR) {
+					if (database != null) {
+						database.clear();
+						// The rows after it are only replayed once the table is empty.
+						database.getPendingWrites().join();
+					}
+					continue;
+				}
+				String key = input.readUTF();
+				String value = null;
+				if (operation == PUT) {
+					byte[] data = new byte[input.readInt()];
+					input.readFully(data);
+					value = new String(data, StandardCharsets.UTF_8);
+				}
+				if (database != null)
+					database.putSerialized(key, value);
+			}
+		}
+	}
+
+	private void rotate() {
+		File[] fulls = folder.listFiles((directory, name) -> name.endsWith(FULL));
+		if (fulls == null || fulls.length <= keep)
+			return;
+		// The timestamps sort in the order the backups were taken.
+		Arrays.sort(fulls);
+		String oldest = fulls[fulls.length - keep].getName();
+		File[] files = folder.listFiles((directory, name) -> name.endsWith(FULL) || name.endsWith(INCREMENTAL));
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.getName().compareTo(oldest) < 0)
+				file.delete();
+		}
+	}
+
+	private File getLastFullFile() {
+		File[] fulls = folder.listFiles((directory, name) -> name.endsWith(FULL));
+		if (fulls == null || fulls.length == 0)
+			return null;
+		Arrays.sort(fulls);
+		return fulls[fulls.length - 1];
+	}
+
+	private String timestamp() {
+		return new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+	}
+
+	/**
+	 * @return The time in milliseconds of the last full backup this run, 0 if none.
+	 */
+	public long getLastFull() {
+		return lastFull;
+	}
+
+	/**
+	 * @return The time in milliseconds of the last incremental snapshot this run, 0 if none.
+	 */
+	public long getLastIncremental() {
+		return lastIncremental;
+	}
+
+	/**
+	 * @return The amount of rows waiting for the next incremental snapshot.
+	 */
+	public synchronized int getPending() {
+		return changed.values().stream().mapToInt(Set::size).sum();
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * Stops scheduling backups, taking a last incremental snapshot of anything still pending.
+	 * The last snapshot isn't throttled, it's taken on the thread closing the database, such as the main thread when disabling.
+	 */
+	public void close() {
+		full.cancel(false);
+		if (incremental == null)
+			return;
+		incremental.cancel(false);
+		snapshot(0);
+	}
+
+	/**
+	 * Limits the bytes per second written to the stream by sleeping once ahead of the rate.
+	 */
+	private static class ThrottledOutputStream extends FilterOutputStream {
+
+		private final long start = System.nanoTime();
+		private final long rate;
+		private long written;
+
+		ThrottledOutputStream(OutputStream output, long rate) {
+			super(output);
+			this.rate = rate;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			throttle(1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			out.write(bytes, offset, length);
+			throttle(length);
+		}
+
+		private void throttle(int length) throws IOException {
+			if (rate <= 0)
+				return;
+			written += length;
+			long ahead = written * 1000 / rate - (System.nanoTime() - start) / 1000000;
+			if (ahead <= 0)
+				return;
+			try {
+				Thread.sleep(ahead);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while throttling the backup", e);
+			}
+		}
+
+	}
+
+}
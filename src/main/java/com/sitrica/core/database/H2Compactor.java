@@ -0,0 +1,237 @@
+package com.sitrica.core.database;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incrementally compacts the MVStore of an H2 database in the background, so the file doesn't keep growing
+ * from the churn of merges and deletes until a SHUTDOWN DEFRAG.
+ * <p>
+ * Once the fill rate of the file drops below the threshold, live pages are rewritten out of sparse chunks
+ * and the file is shrunk, stopping once the time budget of the run is spent to continue on the next run.
+ * H2 has no SQL for an online compaction, the MVStore is reached through reflection like the NMS of {@link com.sitrica.core.messaging.Title}
+ * so the engine isn't a compile dependency. If the engine has no MVStore the compactor stops itself.
+ */
+public class H2Compactor {
+
+	private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SourCore H2 Compaction");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.setDaemon(true);
+		return thread;
+	});
+	// The bytes of live pages rewritten per compaction step.
+	private static final int STEP = 16 * 1024 * 1024;
+
+	// Compactors shared between the tables of the same engine, with the amount of tables using them.
+	private static final Map<String, H2Compactor> compactors = new HashMap<>();
+	private static final Map<String, Integer> references = new HashMap<>();
+
+	private volatile long sizeBefore, sizeAfter, lastRun, lastDuration, reclaimed;
+	private volatile int fillRate = -1, runs;
+	private final ScheduledFuture<?> task;
+	private final int threshold;
+	private final long budget;
+	private final String url;
+
+	/**
+	 * @param url The JDBC url of the H2 database.
+	 * @param interval The milliseconds between checks of the fill rate.
+	 * @param threshold The fill rate percentage of live data in the file below which it's compacted.
+	 * @param budget The milliseconds a single compaction may take.
+	 */
+	public H2Compactor(String url, long interval, int threshold, long budget) {
+		this.threshold = Math.min(100, Math.max(1, threshold));
+		this.budget = Math.max(budget, 1);
+		this.url = url;
+		task = COMPACTOR.scheduleWithFixedDelay(this::compact, interval, Math.max(interval, 1000), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Grab the compactor of an engine, starting it for the first table.
+	 *
+	 * @param url The JDBC url of the H2 database.
+	 * @param settings The settings holding the compaction configuration.
+	 * @return The H2Compactor of the engine.
+	 */
+	static H2Compactor acquire(String url, H2Settings settings) {
+		synchronized (compactors) {
+			H2Compactor compactor = compactors.computeIfAbsent(url, u -> new H2Compactor(u, settings.getCompactionInterval(),
+					settings.getCompactionFillRate(), settings.getCompactionBudget()));
+			references.merge(url, 1, Integer::sum);
+			return compactor;
+		}
+	}
+
+	/**
+	 * Stops the compactor of an engine once the last table using it closes.
+	 *
+	 * @param url The JDBC url of the H2 database.
+	 */
+	static void release(String url) {
+		synchronized (compactors) {
+			int remaining = references.merge(url, -1, Integer::sum);
+			if (remaining > 0)
+				return;
+			references.remove(url);
+			H2Compactor compactor = compactors.remove(url);
+			if (compactor != null)
+				compactor.close();
+		}
+	}
+
+	/**
+	 * Compacts the file if it's fill rate is below the threshold, within the time budget.
+	 *
+	 * @return true if the file was compacted.
+	 */
+	public boolean compact() {
+		try (Connection connection = DriverManager.getConnection(url)) {
+			Object store = getStore(connection);
+			if (store == null) {
+				// A PageStore or in memory database, nothing to compact.
+				close();
+				return false;
+			}
+			Object fileStore = invoke(store, "getFileStore");
+			if (fileStore == null)
+				return false;
+			int fill = getFillRate(store, fileStore);
+			fillRate = fill;
+			if (fill >= threshold)
+				return false;
+			long start = System.currentTimeMillis();
+			long before = ((Number) invoke(fileStore, "size")).longValue();
+			// Rewrites the live pages of the sparsest chunks until none are left below the threshold.
+			while (System.currentTimeMillis() - start < budget) {
+				if (!Boolean.TRUE.equals(invoke(store, "compact", threshold, STEP)))
+					break;
+			}
+			long remaining = budget - (System.currentTimeMillis() - start);
+			if (remaining > 0)
+				invoke(store, "compactFile", (int) Math.min(remaining, Integer.MAX_VALUE));
+			invoke(store, "commit");
+			long after = ((Number) invoke(fileStore, "size")).longValue();
+			lastDuration = System.currentTimeMillis() - start;
+			lastRun = System.currentTimeMillis();
+			reclaimed += Math.max(0, before - after);
+			fillRate = getFillRate(store, fileStore);
+			sizeBefore = before;
+			sizeAfter = after;
+			runs++;
+			return true;
+		} catch (SQLException | ReflectiveOperationException | ClassCastException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private Object getStore(Connection connection) throws ReflectiveOperationException, SQLException {
+		Object session = invoke(connection, "getSession");
+		Object database = invoke(session, "getDatabase");
+		Object store = invoke(database, "getStore");
+		if (store == null)
+			return null;
+		return invoke(store, "getMvStore");
+	}
+
+	private int getFillRate(Object store, Object fileStore) throws ReflectiveOperationException {
+		// H2 2.x has it on the MVStore, 1.4 on the FileStore.
+		Method method = find(store.getClass(), "getFillRate", 0);
+		if (method != null)
+			return ((Number) method.invoke(store)).intValue();
+		return ((Number) invoke(fileStore, "getFillRate")).intValue();
+	}
+
+	private static Object invoke(Object target, String name, Object... arguments) throws ReflectiveOperationException {
+		Method method = find(target.getClass(), name, arguments.length);
+		if (method == null)
+			throw new NoSuchMethodException(target.getClass().getName() + "." + name);
+		Class<?>[] types = method.getParameterTypes();
+		// Widens int arguments where the engine version takes a long.
+		for (int i = 0; i < arguments.length; i++) {
+			if (types[i] == long.class && arguments[i] instanceof Integer)
+				arguments[i] = ((Integer) arguments[i]).longValue();
+		}
+		try {
+			return method.invoke(target, arguments);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	private static Method find(Class<?> type, String name, int parameters) {
+		for (Method method : type.getMethods()) {
+			if (method.getName().equals(name) && method.getParameterCount() == parameters) {
+				method.setAccessible(true);
+				return method;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The file size in bytes before the last compaction, 0 if none ran.
+	 */
+	public long getSizeBefore() {
+		return sizeBefore;
+	}
+
+	/**
+	 * @return The file size in bytes after the last compaction, 0 if none ran.
+	 */
+	public long getSizeAfter() {
+		return sizeAfter;
+	}
+
+	/**
+	 * @return The bytes reclaimed by every compaction this run.
+	 */
+	public long getReclaimed() {
+		return reclaimed;
+	}
+
+	/**
+	 * @return The percentage of live data in the file at the last check, -1 if never checked.
+	 */
+	public int getFillRate() {
+		return fillRate;
+	}
+
+	/**
+	 * @return The time in milliseconds of the last compaction, 0 if none ran.
+	 */
+	public long getLastRun() {
+		return lastRun;
+	}
+
+	/**
+	 * @return The milliseconds the last compaction took.
+	 */
+	public long getLastDuration() {
+		return lastDuration;
+	}
+
+	/**
+	 * @return The amount of compactions this run.
+	 */
+	public int getRuns() {
+		return runs;
+	}
+
+	public void close() {
+		task.cancel(false);
+	}
+
+}
@@ -2,94 +2,206 @@ package com.sitrica.core.database;
 
 import java.io.File;
 import java.lang.reflect.Type;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 
 import com.google.common.collect.Sets;
 import com.google.gson.JsonSyntaxException;
 import com.sitrica.core.SourPlugin;
+import com.sitrica.core.database.StorageMetrics.Operation;
 
 public class H2Database<T> extends Database<T> {
 
+	// Connections shared between the tables of the same engine, with the amount of tables using them.
+	private static final Map<String, ConnectionPool> shared = new HashMap<>();
+	private static final Map<String, Integer> references = new HashMap<>();
+
+	private final H2Compactor compactor;
+	private final ConnectionPool pool;
+	private final H2Backup backup;
 	private final String tablename;
-	private final Connection connection;
+	private final boolean sharing, owned;
 	private final Type type;
+	private final String url;
 
 	public H2Database(SourPlugin instance, String tablename, Type type, Map<Type, Serializer<?>> serializers) throws SQLException, ClassNotFoundException {
+		this(instance, tablename, type, serializers, new H2Settings());
+	}
+
+	public H2Database(SourPlugin instance, String tablename, Type type, Map<Type, Serializer<?>> serializers, H2Settings settings) throws SQLException, ClassNotFoundException {
+		this(instance, tablename, type, serializers, settings, null);
+	}
+
+	/**
+	 * Creates an H2Database on a pool shared with the other tables of the engine, see {@link DatabaseRegistry}.
+	 *
+	 * @param pool The ConnectionPool of the engine, it isn't closed with this database. Null opens a connection for this table.
+	 */
+	public H2Database(SourPlugin instance, String tablename, Type type, Map<Type, Serializer<?>> serializers, H2Settings settings, ConnectionPool pool) throws SQLException, ClassNotFoundException {
 		super(serializers);
 		this.tablename = tablename;
 		this.type = type;
 		Class.forName("org.h2.Driver");
-		String url = "jdbc:h2:" + instance.getDataFolder().getAbsolutePath() + File.separator + "database";
-		connection = DriverManager.getConnection(url);
-		if (connection == null)
-			return;
-		PreparedStatement stmt = connection.prepareStatement("CREATE TABLE IF NOT EXISTS %table (`id` CHAR(36) PRIMARY KEY, `data` TEXT);".replace("%table", tablename));
-		stmt.executeUpdate();
-		stmt.close();
+		this.url = settings.getUrl(instance);
+		this.sharing = pool == null && settings.isShared();
+		this.owned = pool == null;
+		if (pool == null)
+			pool = sharing ? acquire(url) : new ConnectionPool(url, null, null, 1, 30000);
+		this.pool = pool;
+		pool.execute(connection -> {
+			PreparedStatement stmt = connection.prepareStatement("CREATE TABLE IF NOT EXISTS %table (`id` CHAR(36) PRIMARY KEY, `data` TEXT);".replace("%table", tablename));
+			stmt.executeUpdate();
+			stmt.close();
+			return null;
+		});
+		backup = settings.isBackup() ? H2Backup.acquire(url, settings, new File(instance.getDataFolder(), "backups")) : null;
+		compactor = settings.isCompaction() ? H2Compactor.acquire(url, settings) : null;
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public T get(String key, T def) {
-		T result = def;
+		String json = getSerialized(key);
+		if (json == null)
+			return def;
+		try {
+			T result = (T) deserialize(json, type);
+			if (result == null)
+				return def;
+			return result;
+		} catch (JsonSyntaxException e) {
+			e.printStackTrace();
+		}
+		return def;
+	}
+
+	@Override
+	public String getSerialized(String key) {
+		if (!mightContain(key.toLowerCase(Locale.US)))
+			return null;
+		long start = System.nanoTime();
 		try {
-			result = CompletableFuture.supplyAsync(() -> {
-				T resultReturn = def;
+			String serialized = CompletableFuture.supplyAsync(() -> {
 				try {
-					PreparedStatement statement = connection.prepareStatement("SELECT `data` FROM %table WHERE `id` = ?;".replace("%table", tablename));
-					statement.setString(1, key.toLowerCase(Locale.US));
-					ResultSet rs = statement.executeQuery();
-					while (rs.next()) {
-						String json = rs.getString("data");
-						try {
-							resultReturn = (T) deserialize(json, type);
-						} catch (JsonSyntaxException e) {
-							e.printStackTrace();
-							return def;
-						}
-						if (resultReturn == null)
-							return def;
-					}
-					statement.close();
-					return resultReturn;
+					return pool.execute(connection -> {
+						String json = null;
+						PreparedStatement statement = connection.prepareStatement("SELECT `data` FROM %table WHERE `id` = ?;".replace("%table", tablename));
+						statement.setString(1, key.toLowerCase(Locale.US));
+						ResultSet rs = statement.executeQuery();
+						if (rs.next())
+							json = rs.getString("data");
+						rs.close();
+						statement.close();
+						return json;
+					});
 				} catch (SQLException e) {
-					e.printStackTrace();
+					throw new CompletionException(e);
 				}
-				return resultReturn;
 			}).get();
-		} catch (InterruptedException | ExecutionException e) {
-			e.printStackTrace();
+			record(Operation.GET, start);
+			metrics.read(serialized);
+			return serialized;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			metrics.error(Operation.GET, e);
+			throw new DatabaseUnavailableException("Interrupted reading " + key + " from H2 table " + tablename, e);
+		} catch (ExecutionException e) {
+			Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			metrics.error(Operation.GET, cause);
+			// Thrown instead of returning null, so a failed read isn't mistaken for an absent key.
+			throw new DatabaseUnavailableException("Couldn't read " + key + " from H2 table " + tablename, cause);
 		}
-		return result;
 	}
 
 	@Override
 	public void close() {
-		try {
-			connection.close();
-		} catch (SQLException e) {
-			e.printStackTrace();
+		disableKeyFilter();
+		if (!awaitWrites(10000))
+			consoleMessage("&cTimed out waiting for the queued writes of table " + tablename + ".");
+		if (backup != null)
+			H2Backup.release(url);
+		if (compactor != null)
+			H2Compactor.release(url);
+		if (sharing)
+			release(url);
+		else if (owned)
+			pool.close();
+	}
+
+	private static ConnectionPool acquire(String url) {
+		synchronized (shared) {
+			ConnectionPool pool = shared.get(url);
+			if (pool == null) {
+				pool = new ConnectionPool(url, null, null, 1, 30000);
+				shared.put(url, pool);
+				references.put(url, 0);
+			}
+			references.merge(url, 1, Integer::sum);
+			return pool;
+		}
+	}
+
+	private static void release(String url) {
+		synchronized (shared) {
+			int remaining = references.merge(url, -1, Integer::sum);
+			if (remaining > 0)
+				return;
+			references.remove(url);
+			ConnectionPool pool = shared.remove(url);
+			if (pool != null)
+				pool.close();
 		}
 	}
 
 	@Override
 	public void put(String key, T value) {
-		new Thread(() -> {
+		rank(key.toLowerCase(Locale.US), value);
+		// Serialized here, serializers can store into other tables and a worker shouldn't wait on the queue.
+		String json = value == null ? null : serialize(value, type);
+		submitWrite(key.toLowerCase(Locale.US), value != null, () -> {
 			try {
-				if (value != null) {
+				write(key, json);
+			} catch (SQLException e) {
+				failed(key, e);
+			}
+		});
+	}
+
+	@Override
+	public void putSerialized(String key, String serialized) {
+		rankSerialized(key.toLowerCase(Locale.US), serialized);
+		submitWrite(key.toLowerCase(Locale.US), serialized != null, () -> {
+			try {
+				write(key, serialized);
+			} catch (SQLException e) {
+				failed(key, e);
+			}
+		});
+	}
+
+	// The error is already in the metrics of the write, this makes it visible on the console like a failed MySQL write.
+	private void failed(String key, SQLException exception) {
+		consoleMessage("&cCouldn't write " + key + " to H2 table " + tablename + ": " + exception.getMessage());
+	}
+
+	private void write(String key, String json) throws SQLException {
+		Operation operation = json == null ? Operation.DELETE : Operation.PUT;
+		long start = System.nanoTime();
+		try {
+			pool.execute(connection -> {
+				if (json != null) {
 					PreparedStatement statement = connection.prepareStatement("MERGE INTO %table (id, data) KEY (id) VALUES (?,?);".replace("%table", tablename));
 					statement.setString(1, key.toLowerCase(Locale.US));
-					String json = serialize(value, type);
 					statement.setString(2, json);
 					statement.executeUpdate();
 					statement.close();
@@ -99,62 +211,152 @@ public class H2Database<T> extends Database<T> {
 					statement.executeUpdate();
 					statement.close();
 				}
-			} catch (SQLException e) {
-				e.printStackTrace();
-			}
-		}).start();
+				return null;
+			});
+		} catch (SQLException e) {
+			metrics.error(operation, e);
+			throw e;
+		}
+		record(operation, start);
+		metrics.written(json);
+		if (backup != null)
+			backup.changed(tablename, key.toLowerCase(Locale.US));
 	}
 
 	@Override
 	public boolean has(String key) {
-		boolean result = false;
+		if (!mightContain(key.toLowerCase(Locale.US)))
+			return false;
+		long start = System.nanoTime();
 		try {
-			PreparedStatement statement = connection.prepareStatement("SELECT `id` FROM %table WHERE `id` = ?;".replace("%table", tablename));
-			statement.setString(1, key.toLowerCase(Locale.US));
-			ResultSet rs = statement.executeQuery();
-			result = rs.next();
-			rs.close();
-			statement.close();
-			return result;
+			boolean found = pool.execute(connection -> {
+				PreparedStatement statement = connection.prepareStatement("SELECT `id` FROM %table WHERE `id` = ?;".replace("%table", tablename));
+				statement.setString(1, key.toLowerCase(Locale.US));
+				ResultSet rs = statement.executeQuery();
+				boolean result = rs.next();
+				rs.close();
+				statement.close();
+				return result;
+			});
+			record(Operation.HAS, start);
+			return found;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			metrics.error(Operation.HAS, e);
+			throw new DatabaseUnavailableException("Couldn't read " + key + " from H2 table " + tablename, e);
 		}
-		return result;
 	}
 
 	@Override
 	public void clear() {
-		new Thread(() -> {
+		indexes.forEach(RankedIndex::clear);
+		submitClear(() -> {
+			long start = System.nanoTime();
 			try {
-				PreparedStatement statement = connection.prepareStatement("DELETE FROM %table;".replace("%table", tablename));
-				statement.executeQuery();
-				statement.close();
+				pool.execute(connection -> {
+					PreparedStatement statement = connection.prepareStatement("DELETE FROM %table;".replace("%table", tablename));
+					statement.executeUpdate();
+					statement.close();
+					return null;
+				});
+				record(Operation.CLEAR, start);
+				if (backup != null)
+					backup.cleared(tablename);
 			} catch (SQLException e) {
-				e.printStackTrace();
+				metrics.error(Operation.CLEAR, e);
+				consoleMessage("&cCouldn't clear H2 table " + tablename + ": " + e.getMessage());
 			}
-		}).start();
+		});
+	}
+
+	@Override
+	public Type getType() {
+		return type;
+	}
+
+	@Override
+	public String getTableName() {
+		return tablename;
+	}
+
+	/**
+	 * @return The H2Backup of the engine, null if backups aren't enabled.
+	 */
+	public H2Backup getBackup() {
+		return backup;
+	}
+
+	/**
+	 * @return The H2Compactor of the engine for it's file size metrics, null if compaction isn't enabled.
+	 */
+	public H2Compactor getCompactor() {
+		return compactor;
+	}
+
+	@Override
+	public void forEachSerialized(BiConsumer<String, String> consumer) {
+		long start = System.nanoTime();
+		try {
+			int rows = 0;
+			String after = "";
+			while (true) {
+				String last = after;
+				Map<String, String> page = pool.execute(connection -> selectPage(connection, tablename, last));
+				for (Map.Entry<String, String> row : page.entrySet()) {
+					consumer.accept(row.getKey(), row.getValue());
+					after = row.getKey();
+				}
+				rows += page.size();
+				if (page.size() < SCAN_PAGE)
+					break;
+			}
+			record(Operation.SCAN, start);
+			metrics.batch(rows);
+		} catch (SQLException e) {
+			metrics.error(Operation.SCAN, e);
+			e.printStackTrace();
+		}
 	}
 
 	public Set<String> getKeys() {
 		try {
-			return CompletableFuture.supplyAsync(() -> {
+			return scanKeys();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return Sets.newHashSet();
+	}
+
+	@Override
+	protected Set<String> scanKeys() throws SQLException {
+		long start = System.nanoTime();
+		try {
+			Set<String> keys = CompletableFuture.supplyAsync(() -> {
 				Set<String> set = new HashSet<>();
 				try {
-					PreparedStatement statement = connection.prepareStatement("SELECT `id` FROM %table;".replace("%table", tablename));
-					ResultSet result = statement.executeQuery();
-					while (result.next())
-						set.add(result.getString("id"));
-					result.close();
-					statement.close();
+					pool.execute(connection -> {
+						PreparedStatement statement = connection.prepareStatement("SELECT `id` FROM %table;".replace("%table", tablename));
+						ResultSet result = statement.executeQuery();
+						while (result.next())
+							set.add(result.getString("id"));
+						result.close();
+						statement.close();
+						return null;
+					});
 				} catch (SQLException e) {
-					e.printStackTrace();
+					throw new CompletionException(e);
 				}
 				return set;
 			}).get();
+			record(Operation.KEYS, start);
+			return keys;
 		} catch (InterruptedException | ExecutionException e) {
-			e.printStackTrace();
+			metrics.error(Operation.KEYS, e);
+			if (e instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+			if (e.getCause() instanceof SQLException)
+				throw (SQLException) e.getCause();
+			throw new SQLException("Couldn't scan the keys of " + tablename, e);
 		}
-		return Sets.newHashSet();
 	}
 
 }
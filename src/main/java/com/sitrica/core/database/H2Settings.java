@@ -0,0 +1,255 @@
+package com.sitrica.core.database;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import com.sitrica.core.SourPlugin;
+import com.sitrica.core.utils.IntervalUtils;
+
+/**
+ * The engine settings of the H2 databases of a plugin.
+ * <p>
+ * 	database:
+ * 	    # H2_MEMORY keeps everything in memory and never touches the disk, for benchmarks and tests.
+ * 	    type: "H2"
+ * 	    h2:
+ * 	        # The page cache of the engine in KB, -1 keeps the H2 default.
+ * 	        cache-size: -1
+ * 	        # Milliseconds before changes are written to disk, this is also the MVStore auto commit delay. -1 keeps the H2 default.
+ * 	        write-delay: -1
+ * 	        compress: false
+ * 	        # If every table should share the pool of the engine, database.pool-size connections, instead of opening their own.
+ * 	        shared-connection: false
+ * 	        # Any other H2 settings to append to the connection url.
+ * 	        settings:
+ * 	            MAX_COMPACT_TIME: 200
+ * 	        # Online backups into the backups folder, see H2Backup.
+ * 	        backup:
+ * 	            enabled: false
+ * 	            # Snapshots of the rows written since the last backup, "0 seconds" for only full backups.
+ * 	            incremental: "15 minutes"
+ * 	            full: "1 day"
+ * 	            # The amount of full backups to keep, with the incremental snapshots taken after them.
+ * 	            keep: 3
+ * 	            # Bytes per second backups are written into the backups folder at, 0 for no limit.
+ * 	            throttle: 1048576
+ * 	        # Compacts the file in the background instead of only at a SHUTDOWN DEFRAG, see H2Compactor.
+ * 	        compaction:
+ * 	            enabled: false
+ * 	            interval: "10 minutes"
+ * 	            # Compacts once less than this percentage of the file is live data.
+ * 	            fill-rate: 60
+ * 	            # Milliseconds a single compaction may take, the rest continues on the next run.
+ * 	            time-budget: 200
+ */
+public class H2Settings {
+
+	private final Map<String, String> settings = new LinkedHashMap<>();
+	private long backupIncremental, backupFull, backupThrottle, compactionInterval, compactionBudget;
+	private int cacheSize = -1, writeDelay = -1, backupKeep, compactionFillRate;
+	private boolean compress, memory, shared;
+
+	/**
+	 * Creates the settings from the database section of a configuration.
+	 *
+	 * @param section The database ConfigurationSection, can be null for the defaults.
+	 * @return The H2Settings read from the section.
+	 */
+	public static H2Settings fromConfiguration(ConfigurationSection section) {
+		H2Settings settings = new H2Settings();
+		if (section == null)
+			return settings;
+		settings.memory(section.getString("type", "H2").equalsIgnoreCase("H2_MEMORY"));
+		ConfigurationSection h2 = section.getConfigurationSection("h2");
+		if (h2 == null)
+			return settings;
+		settings.cacheSize(h2.getInt("cache-size", -1))
+				.writeDelay(h2.getInt("write-delay", -1))
+				.compress(h2.getBoolean("compress", false))
+				.shared(h2.getBoolean("shared-connection", false));
+		if (h2.getBoolean("backup.enabled", false)) {
+			settings.backup(IntervalUtils.getMilliseconds(h2.getString("backup.incremental", "15 minutes")),
+					IntervalUtils.getMilliseconds(h2.getString("backup.full", "1 day")),
+					h2.getInt("backup.keep", 3), h2.getLong("backup.throttle", 1048576));
+		}
+		if (h2.getBoolean("compaction.enabled", false)) {
+			settings.compaction(IntervalUtils.getMilliseconds(h2.getString("compaction.interval", "10 minutes")),
+					h2.getInt("compaction.fill-rate", 60), h2.getLong("compaction.time-budget", 200));
+		}
+		ConfigurationSection extra = h2.getConfigurationSection("settings");
+		if (extra != null) {
+			for (String key : extra.getKeys(false))
+				settings.setting(key, extra.getString(key));
+		}
+		return settings;
+	}
+
+	/**
+	 * @param cacheSize The page cache size of the engine in KB, -1 for the H2 default.
+	 * @return The H2Settings for chaining.
+	 */
+	public H2Settings cacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+		return this;
+	}
+
+	/**
+	 * With the MVStore this is also the auto commit delay.
+	 *
+	 * @param writeDelay The milliseconds before changes are written to disk, -1 for the H2 default.
+	 * @return The H2Settings for chaining.
+	 */
+	public H2Settings writeDelay(int writeDelay) {
+		this.writeDelay = writeDelay;
+		return this;
+	}
+
+	/**
+	 * @param compress If the MVStore should compress it's pages.
+	 * @return The H2Settings for chaining.
+	 */
+	public H2Settings compress(boolean compress) {
+		this.compress = compress;
+		return this;
+	}
+
+	/**
+	 * @param memory If the database should only live in memory.
+	 * @return The H2Settings for chaining.
+	 */
+	public H2Settings memory(boolean memory) {
+		this.memory = memory;
+		return this;
+	}
+
+	/**
+	 * @param shared If tables should share the connections to the engine instead of opening their own.
+	 * @return The H2Settings for chaining.
+	 */
+	public H2Settings shared(boolean shared) {
+		this.shared = shared;
+		return this;
+	}
+
+	/**
+	 * Enables online backups of the database file, see {@link H2Backup}.
+	 *
+	 * @param incremental The milliseconds between incremental snapshots, 0 or lower for only full backups.
+	 * @param full The milliseconds between full backups.
+	 * @param keep The amount of full backups to keep.
+	 * @param throttle The bytes per second backups are written at, 0 or lower for no limit.
+	 * @return The H2Settings for chaining.
+	 */
+	public H2Settings backup(long incremental, long full, int keep, long throttle) {
+		this.backupIncremental = incremental;
+		this.backupThrottle = throttle;
+		this.backupFull = full;
+		this.backupKeep = keep;
+		return this;
+	}
+
+	/**
+	 * Enables background compaction of the database file, see {@link H2Compactor}.
+	 *
+	 * @param interval The milliseconds between checks of the fill rate.
+	 * @param fillRate The percentage of live data in the file below which it's compacted.
+	 * @param budget The milliseconds a single compaction may take.
+	 * @return The H2Settings for chaining.
+	 */
+	public H2Settings compaction(long interval, int fillRate, long budget) {
+		this.compactionFillRate = fillRate;
+		this.compactionInterval = interval;
+		this.compactionBudget = budget;
+		return this;
+	}
+
+	/**
+	 * Adds a raw H2 setting to the connection url.
+	 *
+	 * @param key The H2 setting name e.g: MAX_COMPACT_TIME
+	 * @param value The value of the setting.
+	 * @return The H2Settings for chaining.
+	 */
+	public H2Settings setting(String key, String value) {
+		settings.put(key.toUpperCase(Locale.US), value);
+		return this;
+	}
+
+	public boolean isMemory() {
+		return memory;
+	}
+
+	public boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * @return If online backups are enabled, never for in memory databases.
+	 */
+	public boolean isBackup() {
+		return backupFull > 0 && !memory;
+	}
+
+	public long getBackupIncremental() {
+		return backupIncremental;
+	}
+
+	public long getBackupFull() {
+		return backupFull;
+	}
+
+	public long getBackupThrottle() {
+		return backupThrottle;
+	}
+
+	public int getBackupKeep() {
+		return backupKeep;
+	}
+
+	/**
+	 * @return If background compaction is enabled, never for in memory databases.
+	 */
+	public boolean isCompaction() {
+		return compactionInterval > 0 && !memory;
+	}
+
+	public long getCompactionInterval() {
+		return compactionInterval;
+	}
+
+	public long getCompactionBudget() {
+		return compactionBudget;
+	}
+
+	public int getCompactionFillRate() {
+		return compactionFillRate;
+	}
+
+	/**
+	 * Builds the connection url of the engine.
+	 *
+	 * @param instance The SourPlugin owning the database.
+	 * @return The JDBC url of the H2 database.
+	 */
+	public String getUrl(SourPlugin instance) {
+		StringBuilder url = new StringBuilder("jdbc:h2:");
+		if (memory)
+			// Keeps the database alive while no connection is open.
+			url.append("mem:").append(instance.getName().toLowerCase(Locale.US)).append(";DB_CLOSE_DELAY=-1");
+		else
+			url.append(instance.getDataFolder().getAbsolutePath()).append(File.separator).append("database");
+		if (cacheSize >= 0)
+			url.append(";CACHE_SIZE=").append(cacheSize);
+		if (writeDelay >= 0 && !memory)
+			url.append(";WRITE_DELAY=").append(writeDelay);
+		if (compress && !memory)
+			url.append(";COMPRESS=TRUE");
+		settings.forEach((key, value) -> url.append(';').append(key).append('=').append(value));
+		return url.toString();
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.sitrica.core.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * An in memory Bloom filter over the keys of a {@link Database}, answering definite misses
+ * of {@link Database#has(String)} and {@link Database#get(String)} without a query.
+ * <p>
+ * The filter is built from a scan of the keys and updated on every put. Deleted keys can't be removed
+ * from a Bloom filter, so it's rebuilt on an interval to clear them out.
+ * Until the first scan finishes every key is treated as possibly present.
+ */
+public class KeyFilter {
+
+	private static final ScheduledExecutorService REBUILDER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SourCore Key Filter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final LongAdder queries = new LongAdder(), misses = new LongAdder();
+	private final Supplier<CompletableFuture<Void>> pending;
+	private final Callable<Set<String>> keys;
+	private final double falsePositiveRate;
+	private ScheduledFuture<?> rebuilder;
+	private final int expectedKeys;
+	private long expected, built;
+
+	// Both guarded by this, Guava's BloomFilter isn't safe to read while it's written to.
+	private BloomFilter<CharSequence> filter;
+	private Set<String> rebuilding;
+
+	/**
+	 * @param keys Scans every key of the database, throwing if the scan failed rather than returning fewer keys.
+	 * @param pending Supplies a future of the writes queued so far, see {@link Database#getPendingWrites()}.
+	 * @param expectedKeys The amount of keys the filter is sized for at least.
+	 * @param falsePositiveRate The wanted chance of a key that isn't present passing the filter.
+	 */
+	public KeyFilter(Callable<Set<String>> keys, Supplier<CompletableFuture<Void>> pending, int expectedKeys, double falsePositiveRate) {
+		this.falsePositiveRate = falsePositiveRate;
+		this.expectedKeys = Math.max(expectedKeys, 16);
+		this.pending = pending;
+		this.keys = keys;
+	}
+
+	/**
+	 * Starts the first scan and the periodic rebuilds.
+	 *
+	 * @param interval The milliseconds between rebuilds, 0 or lower to only build once.
+	 */
+	public synchronized void start(long interval) {
+		if (rebuilder != null)
+			rebuilder.cancel(false);
+		if (interval > 0)
+			rebuilder = REBUILDER.scheduleWithFixedDelay(this::rebuild, 0, interval, TimeUnit.MILLISECONDS);
+		else
+			rebuilder = REBUILDER.schedule(this::rebuild, 0, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (rebuilder != null)
+			rebuilder.cancel(false);
+		rebuilder = null;
+	}
+
+	/**
+	 * @param key The key to add to the filter.
+	 */
+	public synchronized void put(String key) {
+		if (filter != null)
+			filter.put(key);
+		if (rebuilding != null)
+			rebuilding.add(key);
+	}
+
+	/**
+	 * @param key The key to check.
+	 * @return false if the key is definitely not present, true if it might be.
+	 */
+	public boolean mightContain(String key) {
+		queries.increment();
+		boolean result;
+		synchronized (this) {
+			result = filter == null || filter.mightContain(key);
+		}
+		if (!result)
+			misses.increment();
+		return result;
+	}
+
+	/**
+	 * Scans every key into a fresh filter, dropping deleted keys. Keys put while scanning are carried over.
+	 * If the scan fails the current filter is kept.
+	 */
+	public void rebuild() {
+		synchronized (this) {
+			rebuilding = new HashSet<>();
+		}
+		Set<String> scanned;
+		try {
+			// Keys put before rebuilding started may still have their write queued, the scan has to see them.
+			pending.get().get(1, TimeUnit.MINUTES);
+			scanned = keys.call();
+		} catch (Exception e) {
+			synchronized (this) {
+				rebuilding = null;
+			}
+			if (e instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+			e.printStackTrace();
+			return;
+		}
+		// Leaves room to grow before the next rebuild.
+		long size = Math.max(expectedKeys, scanned.size() * 2L);
+		BloomFilter<CharSequence> next = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), size, falsePositiveRate);
+		scanned.forEach(next::put);
+		synchronized (this) {
+			rebuilding.forEach(next::put);
+			rebuilding = null;
+			filter = next;
+			expected = size;
+			built = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @return If the first scan finished and the filter is answering queries.
+	 */
+	public synchronized boolean isReady() {
+		return filter != null;
+	}
+
+	/**
+	 * @return The amount of keys checked against the filter.
+	 */
+	public long getQueries() {
+		return queries.sum();
+	}
+
+	/**
+	 * @return The amount of checks answered as definite misses without a query.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The current estimated false positive rate, grows as keys are put past the expected amount.
+	 */
+	public synchronized double getFalsePositiveRate() {
+		return filter == null ? 1 : filter.expectedFpp();
+	}
+
+	/**
+	 * @return The size of the filter bits in bytes.
+	 */
+	public synchronized long getMemoryBytes() {
+		if (filter == null)
+			return 0;
+		// The optimal amount of bits Guava allocates for the expected insertions and false positive rate.
+		double bits = -expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		return (long) Math.ceil(bits / 8);
+	}
+
+	/**
+	 * @return The time in milliseconds the filter was last rebuilt, 0 if never.
+	 */
+	public synchronized long getLastBuilt() {
+		return built;
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.sitrica.core.database;
+
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * A handle over the raw serialized form of a value stored in a {@link Database}.
+ * <p>
+ * The value is only deserialized the first time {@link #get()} is called, so reading
+ * a value just to store it somewhere else never pays for building the object.
+ *
+ * @param <T> The type of the value this handle wraps.
+ */
+public class LazyValue<T> {
+
+	private final Database<T> database;
+	private final String serialized;
+	private volatile boolean loaded;
+	private T value;
+
+	LazyValue(Database<T> database, String serialized) {
+		this.database = database;
+		this.serialized = serialized;
+	}
+
+	/**
+	 * @return The raw serialized form of the value as it was stored.
+	 */
+	public String getSerialized() {
+		return serialized;
+	}
+
+	/**
+	 * @return If the value has already been deserialized.
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Deserializes the value on first access and caches it for later calls.
+	 *
+	 * @return The deserialized value, or null if the stored data was malformed.
+	 */
+	@SuppressWarnings("unchecked")
+	public T get() {
+		if (loaded)
+			return value;
+		synchronized (this) {
+			if (loaded)
+				return value;
+			try {
+				value = (T) database.deserialize(serialized, database.getType());
+			} catch (JsonSyntaxException e) {
+				e.printStackTrace();
+			}
+			loaded = true;
+		}
+		return value;
+	}
+
+	/**
+	 * @param def The value to return if the stored data could not be deserialized.
+	 * @return The deserialized value or the default.
+	 */
+	public T get(T def) {
+		T result = get();
+		return result == null ? def : result;
+	}
+
+}
@@ -1,134 +1,585 @@
 package com.sitrica.core.database;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import com.google.gson.JsonSyntaxException;
+import com.sitrica.core.database.ReplicaRouter.Replica;
+import com.sitrica.core.database.StorageMetrics.Operation;
 
 public class MySQLDatabase<T> extends Database<T> {
 
+	private static final ScheduledExecutorService RECOVERY = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SourCore MySQL Recovery");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final int REPLAY_BATCH_SIZE = 500;
+
+	private final CircuitBreaker breaker;
+	private final ConnectionPool pool;
+	private ScheduledFuture<?> recovery;
+	private final WriteJournal journal;
+	private ReplicaRouter replicas;
 	private final String tablename;
-	private final Connection connection;
+	private final boolean owned;
+	private final long retry;
 	private final Type type;
 
 	public MySQLDatabase(String host, String dbname, String tablename, String username, String password, Type type, Map<Type, Serializer<?>> serializers) throws SQLException {
+		this(host, dbname, tablename, username, password, type, serializers, null, 3, 5000);
+	}
+
+	/**
+	 * Creates a MySQLDatabase that journals writes to a local file while MySQL is unavailable.
+	 *
+	 * @param journalFolder The folder to keep the write journal in, null disables journaling and writes are dropped during outages.
+	 * @param failures The amount of failed statements in a row before treating MySQL as unavailable.
+	 * @param retry The milliseconds between reconnection attempts while MySQL is unavailable.
+	 */
+	public MySQLDatabase(String host, String dbname, String tablename, String username, String password, Type type, Map<Type, Serializer<?>> serializers, File journalFolder, int failures, long retry) throws SQLException {
+		this(new ConnectionPool("jdbc:mysql://" + host + "/" + dbname, username, password, 1, 30000), true, tablename, type, serializers, journalFolder, failures, retry);
+	}
+
+	/**
+	 * Creates a MySQLDatabase on a pool shared with the other tables of the database, see {@link DatabaseRegistry}.
+	 *
+	 * @param pool The ConnectionPool of the database, it isn't closed with this database.
+	 * @param journalFolder The folder to keep the write journal in, null disables journaling and writes are dropped during outages.
+	 * @param failures The amount of failed statements in a row before treating MySQL as unavailable.
+	 * @param retry The milliseconds between reconnection attempts while MySQL is unavailable.
+	 */
+	public MySQLDatabase(ConnectionPool pool, String tablename, Type type, Map<Type, Serializer<?>> serializers, File journalFolder, int failures, long retry) throws SQLException {
+		this(pool, false, tablename, type, serializers, journalFolder, failures, retry);
+	}
+
+	private MySQLDatabase(ConnectionPool pool, boolean owned, String tablename, Type type, Map<Type, Serializer<?>> serializers, File journalFolder, int failures, long retry) throws SQLException {
 		super(serializers);
+		this.breaker = new CircuitBreaker(failures);
+		this.retry = Math.max(retry, 50);
 		this.tablename = tablename;
+		this.owned = owned;
 		this.type = type;
-		String url = "jdbc:mysql://" + host + "/" + dbname;
-		connection = DriverManager.getConnection(url, username, password);
+		this.pool = pool;
 		initTable();
+		WriteJournal journal = null;
+		if (journalFolder != null) {
+			try {
+				journal = new WriteJournal(new File(journalFolder, tablename + ".journal"));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		this.journal = journal;
+		// Writes left over from the last outage are replayed before anything else is written.
+		if (journal != null && !journal.isEmpty()) {
+			breaker.halfOpen();
+			scheduleRecovery(0);
+		}
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public T get(String key, T def) {
-		T result = def;
+		String ser = getSerialized(key);
+		if (ser == null)
+			return def;
 		try {
-			PreparedStatement stmt = connection.prepareStatement("SELECT `data` FROM %table WHERE `id` = ?;".replace("%table",tablename));
-			stmt.setString(1, key);
-			ResultSet rs = stmt.executeQuery();
-			while (rs.next()) {
-				String ser = rs.getString("data");
-				try {
-					result = (T) deserialize(ser, type);
-				}catch (JsonSyntaxException e){
-					e.printStackTrace();
-					return def;
-				}
-				if (result==null)return def;
-			}
-			stmt.close();
+			T result = (T) deserialize(ser, type);
+			if (result == null)
+				return def;
 			return result;
-		} catch (SQLException e) {
+		} catch (JsonSyntaxException e) {
 			e.printStackTrace();
 		}
-		return result;
+		return def;
 	}
 
 	@Override
-	public void close() {
+	public String getSerialized(String key) {
+		if (journal != null && (journal.isPending(key) || journal.isCleared()))
+			return journal.getPending(key);
+		if (!mightContain(key))
+			return null;
+		Replica replica = replicas == null ? null : replicas.route(tablename, key);
+		if (replica != null) {
+			long start = System.nanoTime();
+			try {
+				String ser = replica.execute(connection -> selectData(connection, key));
+				replica.record(System.nanoTime() - start);
+				record(Operation.GET, start);
+				metrics.read(ser);
+				return ser;
+			} catch (SQLException e) {
+				replicas.failed(replica);
+			}
+		}
+		// While half open MySQL is up and only the journaled keys are behind, those were answered above.
+		checkAvailable();
+		long start = System.nanoTime();
 		try {
-			connection.close();
+			String ser = pool.execute(connection -> selectData(connection, key));
+			breaker.recordSuccess();
+			record(Operation.GET, start);
+			metrics.read(ser);
+			return ser;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			failed(Operation.GET, e);
+			throw new DatabaseUnavailableException("Couldn't read " + key + " from MySQL table " + tablename, e);
 		}
 	}
 
+	private String selectData(Connection connection, String key) throws SQLException {
+		String ser = null;
+		PreparedStatement stmt = connection.prepareStatement("SELECT `data` FROM %table WHERE `id` = ?;".replace("%table", tablename));
+		stmt.setString(1, key);
+		ResultSet rs = stmt.executeQuery();
+		if (rs.next())
+			ser = rs.getString("data");
+		rs.close();
+		stmt.close();
+		return ser;
+	}
+
+	@Override
+	public void close() {
+		disableKeyFilter();
+		if (!awaitWrites(10000))
+			consoleMessage("&cTimed out waiting for the queued writes of table " + tablename + ".");
+		synchronized (this) {
+			if (recovery != null)
+				recovery.cancel(false);
+		}
+		if (journal != null)
+			journal.close();
+		if (owned)
+			pool.close();
+	}
+
 	@Override
 	public void put(String key, T value) {
-		new Thread(() -> {
+		rank(key, value);
+		// Serialized here, serializers can store into other tables and a worker shouldn't wait on the queue.
+		String json = value == null ? null : serialize(value, type);
+		submitWrite(key, value != null, () -> write(key, json));
+	}
+
+	@Override
+	public void putSerialized(String key, String serialized) {
+		rankSerialized(key, serialized);
+		submitWrite(key, serialized != null, () -> write(key, serialized));
+	}
+
+	private void write(String key, String json) {
+		if (replicas != null)
+			replicas.written(tablename, key);
+		Operation operation = json == null ? Operation.DELETE : Operation.PUT;
+		while (true) {
+			if (journal != null && journal.appendIf(() -> !breaker.isClosed(), key, json))
+				return;
+			if (!breaker.isClosed())
+				return;
+			long start = System.nanoTime();
 			try {
-				if (value != null) {
-					PreparedStatement statement = connection.prepareStatement("INSERT INTO %table VALUES (?,?) ON DUPLICATE KEY UPDATE `data` = ?".replace("%table", tablename));
-					statement.setString(1, key);
-					statement.setString(2, serialize(value,type));
-					statement.setString(3, serialize(value,type));
-					statement.executeUpdate();
-					statement.close();
-				}
+				pool.execute(connection -> {
+					writeRow(connection, key, json);
+					return null;
+				});
+				breaker.recordSuccess();
+				record(operation, start);
+				metrics.written(json);
+				return;
 			} catch (SQLException e) {
-				e.printStackTrace();
+				// The statement itself failed, it would fail the same way when replayed so it isn't journaled.
+				if (!ConnectionPool.isConnectionFailure(e)) {
+					failed(operation, e);
+					return;
+				}
+				metrics.error(operation, e);
+				// Retried on a new connection until the breaker trips, then the next pass journals it.
+				if (breaker.recordFailure())
+					unavailable(e);
 			}
-		}).start();
+		}
+	}
+
+	private void writeRow(Connection connection, String key, String json) throws SQLException {
+		if (json != null) {
+			PreparedStatement statement = connection.prepareStatement("INSERT INTO %table VALUES (?,?) ON DUPLICATE KEY UPDATE `data` = ?".replace("%table", tablename));
+			statement.setString(1, key);
+			statement.setString(2, json);
+			statement.setString(3, json);
+			statement.executeUpdate();
+			statement.close();
+		} else {
+			PreparedStatement statement = connection.prepareStatement("DELETE FROM %table WHERE `id` = ?".replace("%table", tablename));
+			statement.setString(1, key);
+			statement.executeUpdate();
+			statement.close();
+		}
 	}
 
 	@Override
 	public boolean has(String key) {
-		boolean result = false;
+		if (journal != null && (journal.isPending(key) || journal.isCleared()))
+			return journal.getPending(key) != null;
+		if (!mightContain(key))
+			return false;
+		Replica replica = replicas == null ? null : replicas.route(tablename, key);
+		if (replica != null) {
+			long start = System.nanoTime();
+			try {
+				boolean result = replica.execute(connection -> selectId(connection, key));
+				replica.record(System.nanoTime() - start);
+				record(Operation.HAS, start);
+				return result;
+			} catch (SQLException e) {
+				replicas.failed(replica);
+			}
+		}
+		checkAvailable();
+		long start = System.nanoTime();
 		try {
-			PreparedStatement statement = connection.prepareStatement("SELECT `id` FROM %table WHERE `id` = ?".replace("%table", tablename));
-			statement.setString(1, key);
-			ResultSet rs = statement.executeQuery();
-			result = rs.next();
-			rs.close();
-			connection.close();
+			boolean result = pool.execute(connection -> selectId(connection, key));
+			breaker.recordSuccess();
+			record(Operation.HAS, start);
 			return result;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			failed(Operation.HAS, e);
+			throw new DatabaseUnavailableException("Couldn't read " + key + " from MySQL table " + tablename, e);
 		}
+	}
+
+	private boolean selectId(Connection connection, String key) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement("SELECT `id` FROM %table WHERE `id` = ?".replace("%table", tablename));
+		statement.setString(1, key);
+		ResultSet rs = statement.executeQuery();
+		boolean result = rs.next();
+		rs.close();
+		statement.close();
 		return result;
 	}
 
 	@Override
 	public void clear() {
+		indexes.forEach(RankedIndex::clear);
+		submitClear(() -> {
+			if (replicas != null)
+				replicas.written(tablename);
+			while (true) {
+				// Journaled while unavailable, the journaled writes before it are discarded.
+				if (journal != null && journal.clearIf(() -> !breaker.isClosed()))
+					return;
+				if (!breaker.isClosed())
+					return;
+				try {
+					truncate();
+					breaker.recordSuccess();
+					return;
+				} catch (SQLException e) {
+					if (!ConnectionPool.isConnectionFailure(e)) {
+						failed(Operation.CLEAR, e);
+						return;
+					}
+					if (breaker.recordFailure())
+						unavailable(e);
+				}
+			}
+		});
+	}
+
+	private void truncate() throws SQLException {
+		long start = System.nanoTime();
 		try {
-			PreparedStatement statement = connection.prepareStatement("TRUNCATE TABLE %table".replace("%table", tablename));
-			statement.executeQuery();
-			statement.close();
+			pool.execute(connection -> {
+				PreparedStatement statement = connection.prepareStatement("TRUNCATE TABLE %table".replace("%table", tablename));
+				statement.executeUpdate();
+				statement.close();
+				return null;
+			});
 		} catch (SQLException e) {
-			e.printStackTrace();
+			metrics.error(Operation.CLEAR, e);
+			throw e;
 		}
+		record(Operation.CLEAR, start);
 	}
 
 	@Override
 	public Set<String> getKeys() {
-		Set<String> tempset = new HashSet<>();
 		try {
-			PreparedStatement statement = connection.prepareStatement("SELECT `id` FROM %table".replace("%table", tablename));
-			ResultSet rs = statement.executeQuery();
-			while (rs.next()) {
-				tempset.add(rs.getString("id"));
-			}
-			rs.close();
-			statement.close();
+			return scanKeys();
 		} catch (SQLException e) {
-			e.printStackTrace();
+			// Already reported, the pending writes are still known.
+			return merge(new HashSet<>());
+		}
+	}
+
+	@Override
+	protected Set<String> scanKeys() throws SQLException {
+		// Only the writes after a journaled clear are keys.
+		if (journal != null && journal.isCleared())
+			return merge(new HashSet<>());
+		Set<String> tempset = null;
+		Replica replica = replicas == null ? null : replicas.route(tablename, null);
+		if (replica != null) {
+			long start = System.nanoTime();
+			try {
+				tempset = replica.execute(this::selectIds);
+				replica.record(System.nanoTime() - start);
+				record(Operation.KEYS, start);
+			} catch (SQLException e) {
+				replicas.failed(replica);
+			}
+		}
+		if (tempset == null) {
+			if (breaker.getState() == CircuitBreaker.State.OPEN)
+				throw new SQLException("MySQL table " + tablename + " is unavailable");
+			long start = System.nanoTime();
+			try {
+				tempset = pool.execute(this::selectIds);
+				breaker.recordSuccess();
+				record(Operation.KEYS, start);
+			} catch (SQLException e) {
+				failed(Operation.KEYS, e);
+				throw e;
+			}
+		}
+		return merge(tempset);
+	}
+
+	// Applies the writes waiting in the journal to the keys read from MySQL.
+	private Set<String> merge(Set<String> keys) {
+		if (journal != null) {
+			journal.getPending().forEach((key, value) -> {
+				if (value == null)
+					keys.remove(key);
+				else
+					keys.add(key);
+			});
+		}
+		return keys;
+	}
+
+	@Override
+	public void forEachSerialized(BiConsumer<String, String> consumer) {
+		Map<String, String> pending = journal == null ? new HashMap<>() : journal.getPending();
+		if (journal == null || !journal.isCleared()) {
+			checkAvailable();
+			long start = System.nanoTime();
+			try {
+				int rows = 0;
+				String after = "";
+				while (true) {
+					String last = after;
+					Map<String, String> page = pool.execute(connection -> selectPage(connection, tablename, last));
+					for (Map.Entry<String, String> row : page.entrySet()) {
+						if (!pending.containsKey(row.getKey()))
+							consumer.accept(row.getKey(), row.getValue());
+						after = row.getKey();
+					}
+					rows += page.size();
+					if (page.size() < SCAN_PAGE)
+						break;
+				}
+				breaker.recordSuccess();
+				record(Operation.SCAN, start);
+				metrics.batch(rows);
+			} catch (SQLException e) {
+				failed(Operation.SCAN, e);
+				throw new DatabaseUnavailableException("Couldn't scan MySQL table " + tablename, e);
+			}
 		}
+		pending.forEach((key, value) -> {
+			if (value != null)
+				consumer.accept(key, value);
+		});
+	}
+
+	private Set<String> selectIds(Connection connection) throws SQLException {
+		Set<String> tempset = new HashSet<>();
+		PreparedStatement statement = connection.prepareStatement("SELECT `id` FROM %table".replace("%table", tablename));
+		ResultSet rs = statement.executeQuery();
+		while (rs.next()) {
+			tempset.add(rs.getString("id"));
+		}
+		rs.close();
+		statement.close();
 		return tempset;
 	}
 
+	@Override
+	public Type getType() {
+		return type;
+	}
+
+	@Override
+	public String getTableName() {
+		return tablename;
+	}
+
+	/**
+	 * Route reads through read replicas, writes and reads of recently written keys stay on the primary.
+	 * The router is shared between tables and isn't closed with this database.
+	 *
+	 * @param replicas The ReplicaRouter to read through, null to only use the primary.
+	 * @return The MySQLDatabase for chaining.
+	 */
+	public MySQLDatabase<T> setReplicas(ReplicaRouter replicas) {
+		this.replicas = replicas;
+		return this;
+	}
+
+	/**
+	 * @return The state of the circuit breaker in front of MySQL.
+	 */
+	public CircuitBreaker.State getState() {
+		return breaker.getState();
+	}
+
+	/**
+	 * @return The amount of writes waiting in the journal to be replayed.
+	 */
+	public int getJournalSize() {
+		return journal == null ? 0 : journal.size();
+	}
+
+	/**
+	 * Reads of keys that aren't journaled have to reach MySQL, they can't be answered while it's down.
+	 *
+	 * @throws DatabaseUnavailableException If the breaker is open.
+	 */
+	private void checkAvailable() {
+		if (breaker.getState() == CircuitBreaker.State.OPEN)
+			throw new DatabaseUnavailableException("MySQL table " + tablename + " is unavailable");
+	}
+
+	private void failed(Operation operation, SQLException exception) {
+		metrics.error(operation, exception);
+		// Only a lost connection counts towards the breaker, a failed statement doesn't mean MySQL is down.
+		if (ConnectionPool.isConnectionFailure(exception) && breaker.recordFailure())
+			unavailable(exception);
+		else
+			exception.printStackTrace();
+	}
+
+	private void unavailable(SQLException exception) {
+		if (!breaker.trip())
+			return;
+		consoleMessage("&cMySQL table " + tablename + " is unavailable (" + exception.getMessage() + "), "
+				+ (journal == null ? "writes will be dropped" : "journaling writes to " + journal.getFile().getName()) + " until it's back.");
+		scheduleRecovery(retry);
+	}
+
+	private synchronized void scheduleRecovery(long delay) {
+		if (recovery != null && !recovery.isDone())
+			return;
+		recovery = RECOVERY.scheduleWithFixedDelay(this::recover, delay, retry, TimeUnit.MILLISECONDS);
+	}
+
+	private void recover() {
+		try {
+			// A failed connection is closed by the pool, so this opens a fresh one.
+			boolean valid = pool.execute(connection -> connection.isValid(2));
+			if (!valid)
+				return;
+		} catch (SQLException e) {
+			// Still unavailable, try again next run.
+			return;
+		}
+		breaker.halfOpen();
+		try {
+			if (journal != null)
+				journal.replay(REPLAY_BATCH_SIZE, this::truncate, this::replay, breaker::close);
+			else
+				breaker.close();
+		} catch (Exception e) {
+			breaker.open();
+			return;
+		}
+		synchronized (this) {
+			recovery.cancel(false);
+			// A failure between closing and cancelling found this task still scheduled, so it's rescheduled here.
+			if (!breaker.isClosed())
+				recovery = RECOVERY.scheduleWithFixedDelay(this::recover, retry, retry, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void replay(Map<String, String> writes) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			pool.execute(connection -> {
+				replay(connection, writes);
+				return null;
+			});
+		} catch (SQLException e) {
+			metrics.error(Operation.FLUSH, e);
+			if (ConnectionPool.isConnectionFailure(e))
+				throw e;
+			// A record MySQL rejects would fail every retry, so the batch is written one by one and those records are dropped.
+			for (Map.Entry<String, String> entry : writes.entrySet()) {
+				try {
+					pool.execute(connection -> {
+						writeRow(connection, entry.getKey(), entry.getValue());
+						return null;
+					});
+				} catch (SQLException failure) {
+					if (ConnectionPool.isConnectionFailure(failure))
+						throw failure;
+					metrics.error(Operation.FLUSH, failure);
+					consoleMessage("&cDropped the journaled write of " + entry.getKey() + " to MySQL table " + tablename + ": " + failure.getMessage());
+				}
+			}
+		}
+		record(Operation.FLUSH, start);
+		metrics.batch(writes.size());
+	}
+
+	private void replay(Connection connection, Map<String, String> writes) throws SQLException {
+		PreparedStatement insert = connection.prepareStatement("INSERT INTO %table VALUES (?,?) ON DUPLICATE KEY UPDATE `data` = ?".replace("%table", tablename));
+		PreparedStatement delete = connection.prepareStatement("DELETE FROM %table WHERE `id` = ?".replace("%table", tablename));
+		try {
+			// Every key is only once in a batch, so splitting the inserts and deletes keeps the order per key.
+			for (Map.Entry<String, String> entry : writes.entrySet()) {
+				if (entry.getValue() == null) {
+					delete.setString(1, entry.getKey());
+					delete.addBatch();
+				} else {
+					insert.setString(1, entry.getKey());
+					insert.setString(2, entry.getValue());
+					insert.setString(3, entry.getValue());
+					insert.addBatch();
+				}
+			}
+			insert.executeBatch();
+			delete.executeBatch();
+		} finally {
+			insert.close();
+			delete.close();
+		}
+	}
+
 	private void initTable() throws SQLException {
 		String tablequery = "CREATE TABLE IF NOT EXISTS %table (`id` CHAR(36) PRIMARY KEY, `data` TEXT);".replace("%table", tablename);
-		PreparedStatement statement = connection.prepareStatement(tablequery);
-		statement.executeUpdate();
+		pool.execute(connection -> {
+			PreparedStatement statement = connection.prepareStatement(tablequery);
+			statement.executeUpdate();
+			statement.close();
+			return null;
+		});
 	}
 
 }
@@ -0,0 +1,316 @@
+package com.sitrica.core.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.ToDoubleFunction;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * An in memory ranking of the values of a {@link Database} by a score, for leaderboards.
+ * <p>
+ * The ranking is an order statistic treap ordered by score, highest first, and then by key.
+ * Every put to the database updates it, so {@link #top(int)}, {@link #rankOf(String)} and {@link #page(int, int)}
+ * are answered in logarithmic time without scanning or deserializing the database.
+ * Keys are ranked as they're stored, the H2Database stores them lower case.
+ *
+ * @param <T> The type of the values in the database.
+ */
+public class RankedIndex<T> {
+
+	private final Map<String, Double> scores = new HashMap<>();
+	private final Random random = new Random();
+	private volatile CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
+	private final ToDoubleFunction<T> scorer;
+	private Set<String> rebuilding;
+	// Tells a rebuild that the index was cleared while it ran.
+	private int generation;
+	private Node root;
+
+	/**
+	 * @param scorer Grabs the score of a value, higher scores rank first.
+	 */
+	public RankedIndex(ToDoubleFunction<T> scorer) {
+		this.scorer = scorer;
+	}
+
+	/**
+	 * Updates the score of a key.
+	 *
+	 * @param key The key as it's stored.
+	 * @param value The new value of the key, null removes the key.
+	 */
+	public synchronized void update(String key, T value) {
+		if (rebuilding != null)
+			rebuilding.add(key);
+		set(key, value);
+	}
+
+	/**
+	 * Rebuilds the ranking from every value of the database in a single pass.
+	 * Keys updated while it rebuilds keep their updated score, values that can't be deserialized are skipped.
+	 *
+	 * @param database The Database to rank.
+	 */
+	@SuppressWarnings("unchecked")
+	public void rebuild(Database<T> database) {
+		int started;
+		synchronized (this) {
+			root = null;
+			scores.clear();
+			rebuilding = new HashSet<>();
+			started = ++generation;
+		}
+		try {
+			database.forEachSerialized((key, serialized) -> {
+				T value;
+				try {
+					value = (T) database.deserialize(serialized, database.getType());
+				} catch (JsonParseException e) {
+					e.printStackTrace();
+					return;
+				}
+				synchronized (this) {
+					if (generation == started && !rebuilding.contains(key))
+						set(key, value);
+				}
+			});
+		} finally {
+			synchronized (this) {
+				if (generation == started)
+					rebuilding = null;
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		root = null;
+		scores.clear();
+		// A rebuild still running stops adding the values from before the clear.
+		generation++;
+		rebuilding = null;
+	}
+
+	/**
+	 * @return A CompletableFuture completed once the ranking was built by {@link Database#addRankedIndex(ToDoubleFunction)}.
+	 */
+	public CompletableFuture<Void> getReady() {
+		return ready;
+	}
+
+	void setReady(CompletableFuture<Void> ready) {
+		this.ready = ready;
+	}
+
+	/**
+	 * @param n The amount of entries.
+	 * @return The n highest scoring entries, highest first.
+	 */
+	public List<Entry> top(int n) {
+		return page(0, n);
+	}
+
+	/**
+	 * @param offset The amount of entries to skip from the top.
+	 * @param n The amount of entries.
+	 * @return The n entries ranked after the offset, highest first.
+	 */
+	public synchronized List<Entry> page(int offset, int n) {
+		List<Entry> entries = new ArrayList<>(Math.max(0, Math.min(n, size(root) - offset)));
+		if (offset >= 0 && n > 0)
+			collect(root, offset, offset + n, 0, entries);
+		return entries;
+	}
+
+	/**
+	 * @param key The key as it's stored.
+	 * @return The rank of the key starting from 1 for the highest score, -1 if the key isn't ranked.
+	 */
+	public synchronized int rankOf(String key) {
+		Double score = scores.get(key);
+		if (score == null)
+			return -1;
+		int rank = 0;
+		Node node = root;
+		while (node != null) {
+			int compare = compare(score, key, node);
+			if (compare == 0)
+				return rank + size(node.left) + 1;
+			if (compare < 0) {
+				node = node.left;
+			} else {
+				rank += size(node.left) + 1;
+				node = node.right;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param key The key as it's stored.
+	 * @return The score of the key, NaN if the key isn't ranked.
+	 */
+	public synchronized double getScore(String key) {
+		Double score = scores.get(key);
+		return score == null ? Double.NaN : score;
+	}
+
+	/**
+	 * @return The amount of ranked keys.
+	 */
+	public synchronized int size() {
+		return size(root);
+	}
+
+	private void set(String key, T value) {
+		Double previous = scores.remove(key);
+		if (previous != null)
+			root = remove(root, previous, key);
+		if (value == null)
+			return;
+		double score = scorer.applyAsDouble(value);
+		if (Double.isNaN(score))
+			return;
+		scores.put(key, score);
+		root = insert(root, new Node(key, score, random.nextInt()));
+	}
+
+	private void collect(Node node, int from, int to, int before, List<Entry> entries) {
+		if (node == null || before >= to)
+			return;
+		int rank = before + size(node.left);
+		if (from < rank)
+			collect(node.left, from, to, before, entries);
+		if (rank >= from && rank < to)
+			entries.add(new Entry(node.key, node.score, rank + 1));
+		if (rank + 1 < to)
+			collect(node.right, from, to, rank + 1, entries);
+	}
+
+	private static int compare(double score, String key, Node node) {
+		// Highest scores first.
+		int compare = Double.compare(node.score, score);
+		return compare != 0 ? compare : key.compareTo(node.key);
+	}
+
+	private Node insert(Node node, Node inserted) {
+		if (node == null)
+			return inserted;
+		if (inserted.priority > node.priority) {
+			Node[] split = split(node, inserted.score, inserted.key);
+			inserted.left = split[0];
+			inserted.right = split[1];
+			return inserted.update();
+		}
+		if (compare(inserted.score, inserted.key, node) < 0)
+			node.left = insert(node.left, inserted);
+		else
+			node.right = insert(node.right, inserted);
+		return node.update();
+	}
+
+	private Node remove(Node node, double score, String key) {
+		if (node == null)
+			return null;
+		int compare = compare(score, key, node);
+		if (compare == 0)
+			return merge(node.left, node.right);
+		if (compare < 0)
+			node.left = remove(node.left, score, key);
+		else
+			node.right = remove(node.right, score, key);
+		return node.update();
+	}
+
+	/**
+	 * @return The nodes ranked before the score and key, and the nodes ranked after it.
+	 */
+	private Node[] split(Node node, double score, String key) {
+		if (node == null)
+			return new Node[2];
+		if (compare(score, key, node) > 0) {
+			Node[] split = split(node.right, score, key);
+			node.right = split[0];
+			split[0] = node.update();
+			return split;
+		}
+		Node[] split = split(node.left, score, key);
+		node.left = split[1];
+		split[1] = node.update();
+		return split;
+	}
+
+	private Node merge(Node left, Node right) {
+		if (left == null)
+			return right;
+		if (right == null)
+			return left;
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			return left.update();
+		}
+		right.left = merge(left, right.left);
+		return right.update();
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static class Node {
+
+		private final String key;
+		private final double score;
+		private final int priority;
+		private Node left, right;
+		private int size = 1;
+
+		Node(String key, double score, int priority) {
+			this.priority = priority;
+			this.score = score;
+			this.key = key;
+		}
+
+		Node update() {
+			size = size(left) + size(right) + 1;
+			return this;
+		}
+
+	}
+
+	public static class Entry {
+
+		private final String key;
+		private final double score;
+		private final int rank;
+
+		Entry(String key, double score, int rank) {
+			this.score = score;
+			this.rank = rank;
+			this.key = key;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * @return The rank starting from 1 for the highest score.
+		 */
+		public int getRank() {
+			return rank;
+		}
+
+	}
+
+}
@@ -0,0 +1,361 @@
+package com.sitrica.core.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import com.sitrica.core.database.ConnectionPool.SQLFunction;
+import com.sitrica.core.utils.IntervalUtils;
+
+/**
+ * Routes the reads of a {@link MySQLDatabase} to healthy read replicas.
+ * <p>
+ * Replicas are health checked on an interval, measuring their latency and replication lag.
+ * Replicas lagging behind more than the threshold are skipped, and keys written within the threshold
+ * are read from the primary so a plugin always reads it's own writes.
+ * The first failure of a replica is logged with it's cause, such as the user missing the REPLICATION CLIENT privilege
+ * the lag is read with, and it stays available from {@link Replica#getFailure()} while the replica is skipped.
+ * <p>
+ * 	mysql:
+ * 	    replicas:
+ * 	        - "replica-1:3306"
+ * 	        - "replica-2:3306"
+ * 	    # ROUND_ROBIN or LEAST_LATENCY
+ * 	    replica-balancing: "ROUND_ROBIN"
+ * 	    max-replica-lag: "5 seconds"
+ * 	    replica-check: "10 seconds"
+ * 	    # The connections kept to each replica.
+ * 	    replica-pool-size: 2
+ */
+public class ReplicaRouter {
+
+	// The MySQL error codes of a missing privilege and of a statement the server doesn't know.
+	private static final int ACCESS_DENIED = 1227, SYNTAX_ERROR = 1064;
+	private static final ScheduledExecutorService CHECKER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SourCore MySQL Replicas");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public enum Balancing {
+		ROUND_ROBIN,
+		LEAST_LATENCY
+	}
+
+	// The routers are shared by every table of the plugin, so writes are tracked per table.
+	private final Map<String, Long> writes = new ConcurrentHashMap<>(), tables = new ConcurrentHashMap<>(), clears = new ConcurrentHashMap<>();
+	private final AtomicInteger next = new AtomicInteger();
+	private final List<Replica> replicas = new ArrayList<>();
+	private final Consumer<String> logger;
+	private final ScheduledFuture<?> checker;
+	private final Balancing balancing;
+	private final long maxLag;
+
+	/**
+	 * @param hosts The addresses of the replicas, same as the primary address e.g: replica:3306
+	 * @param dbname The name of the database on the replicas.
+	 * @param username The user to connect with.
+	 * @param password The password of the user.
+	 * @param balancing How to pick between healthy replicas.
+	 * @param maxLag The maximum replication lag in milliseconds before a replica is skipped.
+	 * @param interval The milliseconds between health checks.
+	 * @param size The maximum amount of connections to each replica.
+	 */
+	public ReplicaRouter(Collection<String> hosts, String dbname, String username, String password, Balancing balancing, long maxLag, long interval, int size) {
+		this(hosts, dbname, username, password, balancing, maxLag, interval, size, null);
+	}
+
+	/**
+	 * @param hosts The addresses of the replicas, same as the primary address e.g: replica:3306
+	 * @param dbname The name of the database on the replicas.
+	 * @param username The user to connect with.
+	 * @param password The password of the user.
+	 * @param balancing How to pick between healthy replicas.
+	 * @param maxLag The maximum replication lag in milliseconds before a replica is skipped.
+	 * @param interval The milliseconds between health checks.
+	 * @param size The maximum amount of connections to each replica.
+	 * @param logger Logs the first failure of a replica, null to not log them.
+	 */
+	public ReplicaRouter(Collection<String> hosts, String dbname, String username, String password, Balancing balancing, long maxLag, long interval, int size, Consumer<String> logger) {
+		this.logger = logger;
+		for (String host : hosts)
+			replicas.add(new Replica(new ConnectionPool("jdbc:mysql://" + host + "/" + dbname, username, password, size, 2000)));
+		this.balancing = balancing;
+		this.maxLag = maxLag;
+		checker = CHECKER.scheduleWithFixedDelay(this::check, 0, Math.max(interval, 100), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a ReplicaRouter from the mysql section of the database configuration.
+	 *
+	 * @param section The mysql ConfigurationSection.
+	 * @return The ReplicaRouter, or null if no replicas are configured.
+	 */
+	public static ReplicaRouter fromConfiguration(ConfigurationSection section) {
+		return fromConfiguration(section, null);
+	}
+
+	/**
+	 * Creates a ReplicaRouter from the mysql section of the database configuration.
+	 *
+	 * @param section The mysql ConfigurationSection.
+	 * @param logger Logs the first failure of a replica, null to not log them.
+	 * @return The ReplicaRouter, or null if no replicas are configured.
+	 */
+	public static ReplicaRouter fromConfiguration(ConfigurationSection section, Consumer<String> logger) {
+		if (section == null)
+			return null;
+		List<String> hosts = section.getStringList("replicas");
+		if (hosts == null || hosts.isEmpty())
+			return null;
+		Balancing balancing;
+		try {
+			balancing = Balancing.valueOf(section.getString("replica-balancing", "ROUND_ROBIN").toUpperCase(Locale.US));
+		} catch (IllegalArgumentException e) {
+			balancing = Balancing.ROUND_ROBIN;
+		}
+		String name = section.getString("name", "username");
+		String user = section.getString("user", "root");
+		String password = section.getString("password", "1234");
+		long maxLag = IntervalUtils.getMilliseconds(section.getString("max-replica-lag", "5 seconds"));
+		long interval = IntervalUtils.getMilliseconds(section.getString("replica-check", "10 seconds"));
+		return new ReplicaRouter(hosts, name, user, password, balancing, maxLag, interval, section.getInt("replica-pool-size", 2), logger);
+	}
+
+	/**
+	 * Grab the replica to read the key from.
+	 *
+	 * @param table The table being read.
+	 * @param key The key being read, null for reads over the whole table.
+	 * @return The Replica to read from, or null if the read has to go to the primary.
+	 */
+	public Replica route(String table, String key) {
+		long now = System.currentTimeMillis();
+		if (now - clears.getOrDefault(table, 0L) <= maxLag)
+			return null;
+		if (key == null) {
+			// A replica could be missing any recently written key.
+			if (now - tables.getOrDefault(table, 0L) <= maxLag)
+				return null;
+		} else {
+			Long written = writes.get(table + "." + key);
+			if (written != null && now - written <= maxLag)
+				return null;
+		}
+		List<Replica> healthy = new ArrayList<>(replicas.size());
+		for (Replica replica : replicas) {
+			if (replica.healthy)
+				healthy.add(replica);
+		}
+		if (healthy.isEmpty())
+			return null;
+		if (balancing == Balancing.LEAST_LATENCY)
+			return Collections.min(healthy, (first, second) -> Long.compare(first.latency, second.latency));
+		return healthy.get(Math.floorMod(next.getAndIncrement(), healthy.size()));
+	}
+
+	/**
+	 * Marks the key as written, so it's read from the primary until every replica has caught up.
+	 *
+	 * @param table The table that was written.
+	 * @param key The key that was written.
+	 */
+	public void written(String table, String key) {
+		long now = System.currentTimeMillis();
+		writes.put(table + "." + key, now);
+		tables.put(table, now);
+	}
+
+	/**
+	 * Marks the whole table as written, so every read of it goes to the primary until the replicas caught up.
+	 *
+	 * @param table The table that was cleared.
+	 */
+	public void written(String table) {
+		long now = System.currentTimeMillis();
+		clears.put(table, now);
+		tables.put(table, now);
+	}
+
+	/**
+	 * Marks the replica unhealthy after a failed read, until it passes a health check again.
+	 *
+	 * @param replica The replica that failed.
+	 */
+	public void failed(Replica replica) {
+		replica.healthy = false;
+		replica.fail("a read failed, skipped until the next health check");
+	}
+
+	/**
+	 * @return The replicas of this router.
+	 */
+	public List<Replica> getReplicas() {
+		return Collections.unmodifiableList(replicas);
+	}
+
+	public void close() {
+		checker.cancel(false);
+		for (Replica replica : replicas)
+			replica.close();
+	}
+
+	private void check() {
+		long now = System.currentTimeMillis();
+		writes.values().removeIf(written -> now - written > maxLag);
+		tables.values().removeIf(written -> now - written > maxLag);
+		clears.values().removeIf(written -> now - written > maxLag);
+		for (Replica replica : replicas)
+			replica.check(maxLag);
+	}
+
+	public class Replica {
+
+		private final ConnectionPool pool;
+		private volatile boolean healthy;
+		private volatile long latency, lag;
+		private volatile String failure;
+
+		Replica(ConnectionPool pool) {
+			this.pool = pool;
+		}
+
+		/**
+		 * Runs the function with a connection of this replica, see {@link ConnectionPool#execute(SQLFunction)}.
+		 *
+		 * @param <R> The result of the function.
+		 * @param function The function to run with the connection.
+		 * @return The result of the function.
+		 * @throws SQLException If no connection could be grabbed or the function failed.
+		 */
+		public <R> R execute(SQLFunction<R> function) throws SQLException {
+			return pool.execute(function);
+		}
+
+		/**
+		 * Records the time a read took, latency is kept as a moving average.
+		 *
+		 * @param nanoseconds The time the read took.
+		 */
+		public void record(long nanoseconds) {
+			long current = latency;
+			latency = current == 0 ? nanoseconds : (current * 4 + nanoseconds) / 5;
+		}
+
+		public boolean isHealthy() {
+			return healthy;
+		}
+
+		/**
+		 * @return The moving average latency of reads in nanoseconds.
+		 */
+		public long getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @return The replication lag of the last health check in milliseconds, -1 if unknown.
+		 */
+		public long getLag() {
+			return lag;
+		}
+
+		/**
+		 * @return Why the replica is skipped, null while it's healthy.
+		 */
+		public String getFailure() {
+			return failure;
+		}
+
+		public String getUrl() {
+			return pool.getUrl();
+		}
+
+		/**
+		 * @return The ConnectionPool of this replica.
+		 */
+		public ConnectionPool getPool() {
+			return pool;
+		}
+
+		// A failed check invalidates the connection it used, connections in use by reads are left alone.
+		private void check(long maxLag) {
+			try {
+				lag = pool.execute(connection -> {
+					long start = System.nanoTime();
+					if (!connection.isValid(2))
+						throw new SQLException("Replica " + pool.getUrl() + " isn't valid");
+					record(System.nanoTime() - start);
+					return getLag(connection);
+				});
+				healthy = lag >= 0 && lag <= maxLag;
+				if (lag < 0)
+					fail("it isn't replicating or replication is stopped");
+				else if (lag > maxLag)
+					fail("it's lagging behind more than the max-replica-lag");
+				else
+					failure = null;
+			} catch (SQLException e) {
+				healthy = false;
+				lag = -1;
+				if (e.getErrorCode() == ACCESS_DENIED)
+					fail("the user needs the REPLICATION CLIENT privilege to read the replication lag (" + e.getMessage() + ")");
+				else
+					fail(e.getMessage());
+			}
+		}
+
+		// Logs when the replica starts failing or fails for another reason, not on every check.
+		private void fail(String reason) {
+			String previous = failure;
+			failure = reason;
+			if (logger != null && !reason.equals(previous))
+				logger.accept("&cSkipping the MySQL replica " + pool.getUrl() + ", " + reason);
+		}
+
+		private long getLag(Connection connection) throws SQLException {
+			try {
+				return getLag(connection, "SHOW REPLICA STATUS", "Seconds_Behind_Source");
+			} catch (SQLException e) {
+				// Only MySQL before 8.0.22 doesn't know it, anything else such as a missing privilege is the real cause.
+				if (e.getErrorCode() != SYNTAX_ERROR)
+					throw e;
+				return getLag(connection, "SHOW SLAVE STATUS", "Seconds_Behind_Master");
+			}
+		}
+
+		private long getLag(Connection connection, String query, String column) throws SQLException {
+			try (PreparedStatement statement = connection.prepareStatement(query);
+				ResultSet result = statement.executeQuery()) {
+				// No rows when the server isn't replicating.
+				if (!result.next())
+					return -1;
+				// Null when replication is stopped.
+				String seconds = result.getString(column);
+				return seconds == null ? -1 : Long.parseLong(seconds) * 1000;
+			}
+		}
+
+		private void close() {
+			pool.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.sitrica.core.database;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a data class to have a {@link StreamSerializer} generated for it at compile time.
+ * <p>
+ * Requires the core-processor annotation processor on the compile classpath.
+ * Serialized fields must not be private or final as they're accessed directly,
+ * transient and static fields are skipped the same way the Database Gson skips them.
+ * The class also needs a non private constructor without arguments.
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SerializedData {
+
+}
@@ -0,0 +1,276 @@
+package com.sitrica.core.database;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonObject;
+
+/**
+ * The storage metrics of a single table, recorded per operation.
+ * <p>
+ * Latencies, serialized sizes and batch rows are kept in histograms of power of two buckets,
+ * so recording is a few uncontended adds and percentiles are estimated to within a factor of two.
+ */
+public class StorageMetrics {
+
+	public enum Operation {
+		GET,
+		PUT,
+		DELETE,
+		HAS,
+		KEYS,
+		SCAN,
+		CLEAR,
+		FLUSH
+	}
+
+	private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+	private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+	private final Map<String, LongAdder[]> caches = new ConcurrentHashMap<>();
+	private final Histogram read = new Histogram(), written = new Histogram(), batches = new Histogram();
+	private final AtomicInteger queued = new AtomicInteger();
+	private volatile String lastError;
+
+	public StorageMetrics() {
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new Histogram());
+			errors.put(operation, new LongAdder());
+		}
+	}
+
+	/**
+	 * Records the latency of an operation.
+	 *
+	 * @param operation The operation that finished.
+	 * @param start The {@link System#nanoTime()} the operation started at.
+	 */
+	public void record(Operation operation, long start) {
+		latencies.get(operation).record((System.nanoTime() - start) / 1000);
+	}
+
+	/**
+	 * Counts a failed operation.
+	 *
+	 * @param operation The operation that failed.
+	 * @param exception The cause of the failure.
+	 */
+	public void error(Operation operation, Exception exception) {
+		errors.get(operation).increment();
+		lastError = operation + ": " + exception.getMessage();
+	}
+
+	/**
+	 * @param serialized The serialized data read from the table.
+	 */
+	public void read(String serialized) {
+		if (serialized != null)
+			read.record(utf8Length(serialized));
+	}
+
+	/**
+	 * @param serialized The serialized data written to the table.
+	 */
+	public void written(String serialized) {
+		if (serialized != null)
+			written.record(utf8Length(serialized));
+	}
+
+	/**
+	 * @param rows The amount of rows in a batch or scan.
+	 */
+	public void batch(int rows) {
+		batches.record(rows);
+	}
+
+	/**
+	 * Counts a write waiting to be run, call {@link #dequeued()} once it ran.
+	 */
+	public void queued() {
+		queued.incrementAndGet();
+	}
+
+	public void dequeued() {
+		queued.decrementAndGet();
+	}
+
+	/**
+	 * @param cache The name of the cache, e.g: key-filter
+	 * @param hit If the cache answered without going to the table.
+	 */
+	public void cache(String cache, boolean hit) {
+		caches.computeIfAbsent(cache, name -> new LongAdder[] {new LongAdder(), new LongAdder()})[hit ? 0 : 1].increment();
+	}
+
+	public Histogram getLatency(Operation operation) {
+		return latencies.get(operation);
+	}
+
+	public long getErrors(Operation operation) {
+		return errors.get(operation).sum();
+	}
+
+	public long getErrors() {
+		return errors.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+
+	/**
+	 * @return The last failure as the operation and message, null if nothing failed.
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * @return The serialized UTF-8 sizes in bytes of reads.
+	 */
+	public Histogram getReadBytes() {
+		return read;
+	}
+
+	/**
+	 * @return The serialized UTF-8 sizes in bytes of writes.
+	 */
+	public Histogram getWrittenBytes() {
+		return written;
+	}
+
+	/**
+	 * @return The rows per batch of batched writes and scans.
+	 */
+	public Histogram getBatchRows() {
+		return batches;
+	}
+
+	/**
+	 * @return The amount of writes waiting to be run.
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * @param cache The name of the cache.
+	 * @return The ratio of hits between 0 and 1, NaN if the cache wasn't used.
+	 */
+	public double getHitRate(String cache) {
+		LongAdder[] counts = caches.get(cache);
+		if (counts == null)
+			return Double.NaN;
+		long hits = counts[0].sum(), total = hits + counts[1].sum();
+		return total == 0 ? Double.NaN : (double) hits / total;
+	}
+
+	public Iterable<String> getCaches() {
+		return caches.keySet();
+	}
+
+	public JsonObject toJson() {
+		JsonObject object = new JsonObject();
+		JsonObject operations = new JsonObject();
+		for (Operation operation : Operation.values()) {
+			Histogram latency = latencies.get(operation);
+			JsonObject json = latency.toJson();
+			json.addProperty("errors", getErrors(operation));
+			operations.add(operation.name().toLowerCase(), json);
+		}
+		object.add("latency-micros", operations);
+		object.add("read-bytes", read.toJson());
+		object.add("written-bytes", written.toJson());
+		object.add("batch-rows", batches.toJson());
+		object.addProperty("queue-depth", getQueueDepth());
+		JsonObject rates = new JsonObject();
+		for (String cache : caches.keySet())
+			rates.addProperty(cache, getHitRate(cache));
+		object.add("cache-hit-rates", rates);
+		object.addProperty("last-error", lastError);
+		return object;
+	}
+
+	private static int utf8Length(String string) {
+		int length = 0;
+		for (int i = 0; i < string.length(); i++) {
+			char character = string.charAt(i);
+			if (character < 0x80) {
+				length++;
+			} else if (character < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(character)) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * A histogram of power of two buckets.
+	 */
+	public static class Histogram {
+
+		private final LongAdder[] buckets = new LongAdder[64];
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+		private final LongAdder count = new LongAdder(), sum = new LongAdder();
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i] = new LongAdder();
+		}
+
+		public void record(long value) {
+			value = Math.max(0, value);
+			// Bucket i holds values up to 2^i - 1.
+			buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public double getMean() {
+			long count = this.count.sum();
+			return count == 0 ? 0 : (double) sum.sum() / count;
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * @param percentile The percentile between 0 and 1, e.g: 0.99
+		 * @return The upper bound of the bucket the percentile falls in, capped at the maximum.
+		 */
+		public long getPercentile(double percentile) {
+			long total = count.sum();
+			if (total == 0)
+				return 0;
+			long target = (long) Math.ceil(total * percentile), seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i].sum();
+				if (seen >= target)
+					return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+			}
+			return getMax();
+		}
+
+		public JsonObject toJson() {
+			JsonObject object = new JsonObject();
+			object.addProperty("count", getCount());
+			object.addProperty("mean", getMean());
+			object.addProperty("p50", getPercentile(0.5));
+			object.addProperty("p99", getPercentile(0.99));
+			object.addProperty("max", getMax());
+			return object;
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.sitrica.core.database;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+
+/**
+ * The streaming counterpart of {@link Serializer}, reads and writes directly
+ * from the JsonReader and JsonWriter without building a JsonElement tree.
+ * <p>
+ * Implementations are generated for classes annotated with {@link SerializedData}
+ * and picked up automatically by the Database Gson through {@link StreamSerializerFactory}.
+ *
+ * @param <T> The type this serializer handles.
+ */
+public abstract class StreamSerializer<T> extends TypeAdapter<T> {
+
+	/**
+	 * The suffix appended to the generated serializer class names.
+	 */
+	public static final String SUFFIX = "_Serializer";
+
+	protected final Gson gson;
+
+	protected StreamSerializer(Gson gson) {
+		this.gson = gson;
+	}
+
+	/**
+	 * Grab the name of the generated serializer for a class.
+	 * Nested classes are flattened, so Outer.Inner becomes Outer_Inner_Serializer.
+	 * 
+	 * @param type The class annotated with SerializedData.
+	 * @return The fully qualified name of the generated serializer.
+	 */
+	public static String getSerializerName(Class<?> type) {
+		String name = type.getName();
+		int index = name.lastIndexOf('.');
+		String packageName = index < 0 ? "" : name.substring(0, index + 1);
+		return packageName + name.substring(index + 1).replace('$', '_') + SUFFIX;
+	}
+
+}
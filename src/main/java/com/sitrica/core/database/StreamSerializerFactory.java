@@ -0,0 +1,35 @@
+package com.sitrica.core.database;
+
+import java.lang.reflect.Constructor;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Hands Gson the generated {@link StreamSerializer} of classes annotated with {@link SerializedData},
+ * Gson caches the result per type so the lookup only happens once per Gson instance.
+ */
+public class StreamSerializerFactory implements TypeAdapterFactory {
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> token) {
+		Class<? super T> type = token.getRawType();
+		if (!type.isAnnotationPresent(SerializedData.class))
+			return null;
+		String name = StreamSerializer.getSerializerName(type);
+		try {
+			Class<?> serializer = Class.forName(name, true, type.getClassLoader());
+			Constructor<?> constructor = serializer.getConstructor(Gson.class);
+			return (TypeAdapter<T>) constructor.newInstance(gson);
+		} catch (ClassNotFoundException e) {
+			throw new JsonParseException("No generated serializer " + name + " for " + type.getName() + ", is the core-processor annotation processor configured?", e);
+		} catch (ReflectiveOperationException e) {
+			throw new JsonParseException("Failed to create the generated serializer " + name, e);
+		}
+	}
+
+}
@@ -0,0 +1,415 @@
+package com.sitrica.core.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * An append only file of writes that couldn't reach the database, replayed in order once it's back.
+ * <p>
+ * Appends queue the record and wait for a shared writer thread, which drains everything queued and
+ * forces it to disk once per drain. A burst of writes shares a single fsync, and every append only returns once it's on disk.
+ * The latest value of every journaled key is also kept in memory to answer reads and to replay from.
+ * A journaled clear discards the writes before it, the table is cleared first when replaying.
+ */
+public class WriteJournal {
+
+	private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SourCore Journal Writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final byte[] TRUNCATE = new byte[0];
+	private static final byte DELETE = 0, PUT = 1, CLEAR = 2;
+
+	private final Map<String, Entry> pending = new LinkedHashMap<>();
+	private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final FileChannel channel;
+	private final File file;
+	// Guarded by pending, the generation tells a clear that came in while replaying one apart.
+	private boolean cleared;
+	private int clears;
+	// The sequence of the last queued record guarded by pending, and of the last record on disk guarded by synced.
+	private long sequence, durable;
+	private final Object synced = new Object();
+
+	/**
+	 * Opens the journal, loading any writes left over from a previous run.
+	 *
+	 * @param file The file of the journal, created if it doesn't exist.
+	 * @throws IOException If the file couldn't be read or opened.
+	 */
+	public WriteJournal(File file) throws IOException {
+		this.file = file;
+		if (file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+		long valid = 0;
+		if (file.exists())
+			valid = load(Files.readAllBytes(file.toPath()));
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		// Drops a torn record at the end from a crash mid write.
+		channel.truncate(valid);
+		channel.position(valid);
+	}
+
+	private long load(byte[] bytes) throws IOException {
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+		long valid = 0;
+		try {
+			while (input.available() > 0) {
+				byte operation = input.readByte();
+				if (operation == CLEAR) {
+					pending.clear();
+					cleared = true;
+					valid = bytes.length - input.available();
+					continue;
+				}
+				String key = input.readUTF();
+				String value = null;
+				if (operation == PUT) {
+					byte[] data = new byte[input.readInt()];
+					input.readFully(data);
+					value = new String(data, StandardCharsets.UTF_8);
+				}
+				pending.remove(key);
+				pending.put(key, new Entry(key, value));
+				valid = bytes.length - input.available();
+			}
+		} catch (EOFException e) {}
+		return valid;
+	}
+
+	/**
+	 * Journals a write if the condition is met, checked while holding the journal so it
+	 * can't race with {@link #replay(int, Clearer, Replayer, Runnable)} finishing.
+	 * Returns once the write was forced to disk, along with the other writes of the same drain.
+	 *
+	 * @param condition The condition to journal under, generally that the database is unavailable.
+	 * @param key The key being written.
+	 * @param value The serialized value, null for a delete.
+	 * @return true if the write was journaled.
+	 */
+	public boolean appendIf(BooleanSupplier condition, String key, String value) {
+		long record;
+		synchronized (pending) {
+			if (!condition.getAsBoolean())
+				return false;
+			// Moves the key to the end so replaying keeps the order of the latest writes.
+			pending.remove(key);
+			pending.put(key, new Entry(key, value));
+			// Queued while holding the journal so the record can't land after a truncate of it's replay.
+			record = queue(encode(key, value));
+		}
+		schedule();
+		await(record);
+		return true;
+	}
+
+	public void append(String key, String value) {
+		appendIf(() -> true, key, value);
+	}
+
+	/**
+	 * Journals a clear of the table if the condition is met, discarding the writes journaled before it.
+	 *
+	 * @param condition The condition to journal under, generally that the database is unavailable.
+	 * @return true if the clear was journaled.
+	 */
+	public boolean clearIf(BooleanSupplier condition) {
+		long record;
+		synchronized (pending) {
+			if (!condition.getAsBoolean())
+				return false;
+			pending.clear();
+			cleared = true;
+			clears++;
+			record = queue(new byte[] {CLEAR});
+		}
+		schedule();
+		await(record);
+		return true;
+	}
+
+	public void clear() {
+		clearIf(() -> true);
+	}
+
+	/**
+	 * @return If a clear is waiting to be replayed, keys that aren't pending are then absent.
+	 */
+	public boolean isCleared() {
+		synchronized (pending) {
+			return cleared;
+		}
+	}
+
+	/**
+	 * @param key The key to check.
+	 * @return If the key has a write waiting to be replayed.
+	 */
+	public boolean isPending(String key) {
+		synchronized (pending) {
+			return pending.containsKey(key);
+		}
+	}
+
+	/**
+	 * @param key The key to grab.
+	 * @return The latest journaled value of the key, null if it's deleted or not pending.
+	 */
+	public String getPending(String key) {
+		synchronized (pending) {
+			Entry entry = pending.get(key);
+			return entry == null ? null : entry.value;
+		}
+	}
+
+	/**
+	 * @return A copy of the pending writes, deletes map to null.
+	 */
+	public Map<String, String> getPending() {
+		Map<String, String> copy = new LinkedHashMap<>();
+		synchronized (pending) {
+			pending.values().forEach(entry -> copy.put(entry.key, entry.value));
+		}
+		return copy;
+	}
+
+	public boolean isEmpty() {
+		synchronized (pending) {
+			return pending.isEmpty() && !cleared;
+		}
+	}
+
+	public int size() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Replays the journal in order through the replayer until it's empty, writes that come in
+	 * while replaying are picked up in later batches. The file is truncated once everything is replayed.
+	 *
+	 * @param batchSize The maximum amount of writes handed to the replayer at once.
+	 * @param clearer Clears the table in the database when a clear was journaled, before the writes after it.
+	 * @param replayer The replayer that executes a batch against the database.
+	 * @param drained Ran while holding the journal once it's empty, so no write can sneak in before it.
+	 * @throws Exception Any exception from the clearer or replayer, the remaining writes stay journaled.
+	 */
+	public void replay(int batchSize, Clearer clearer, Replayer replayer, Runnable drained) throws Exception {
+		while (true) {
+			int generation = -1;
+			synchronized (pending) {
+				if (cleared)
+					generation = clears;
+			}
+			if (generation >= 0) {
+				clearer.clear();
+				synchronized (pending) {
+					// Another clear while clearing has to run again.
+					if (clears == generation)
+						cleared = false;
+				}
+				continue;
+			}
+			List<Entry> batch = new ArrayList<>(batchSize);
+			synchronized (pending) {
+				if (cleared)
+					continue;
+				if (pending.isEmpty()) {
+					queue(TRUNCATE);
+					schedule();
+					drained.run();
+					return;
+				}
+				Iterator<Entry> iterator = pending.values().iterator();
+				while (iterator.hasNext() && batch.size() < batchSize)
+					batch.add(iterator.next());
+			}
+			Map<String, String> writes = new LinkedHashMap<>();
+			batch.forEach(entry -> writes.put(entry.key, entry.value));
+			replayer.replay(writes);
+			synchronized (pending) {
+				// Only removes entries that weren't written again while replaying.
+				for (Entry entry : batch)
+					pending.remove(entry.key, entry);
+			}
+		}
+	}
+
+	/**
+	 * Writes anything queued to the file and waits for it to be on disk.
+	 */
+	public void flush() {
+		try {
+			WRITER.submit(this::drain).get();
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void close() {
+		flush();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true))
+			WRITER.execute(this::drain);
+	}
+
+	// Called while holding pending, so the sequences are queued in order.
+	private long queue(byte[] bytes) {
+		queue.add(new Record(++sequence, bytes));
+		return sequence;
+	}
+
+	// Waits for the writer to force the record to disk.
+	private void await(long record) {
+		boolean interrupted = false;
+		synchronized (synced) {
+			while (durable < record) {
+				try {
+					synced.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void drain() {
+		scheduled.set(false);
+		long last = -1;
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			Record record;
+			boolean written = false;
+			while ((record = queue.poll()) != null) {
+				last = record.sequence;
+				if (!channel.isOpen())
+					continue;
+				if (record.bytes == TRUNCATE) {
+					buffer.reset();
+					channel.truncate(0);
+					channel.position(0);
+					written = true;
+					continue;
+				}
+				buffer.write(record.bytes);
+			}
+			if (buffer.size() > 0 && channel.isOpen()) {
+				ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+				while (bytes.hasRemaining())
+					channel.write(bytes);
+				written = true;
+			}
+			if (written)
+				channel.force(false);
+		} catch (IOException e) {
+			// The appends still return, the writes stay pending in memory and are replayed from there.
+			e.printStackTrace();
+			Record record;
+			while ((record = queue.poll()) != null)
+				last = record.sequence;
+		} finally {
+			if (last >= 0) {
+				synchronized (synced) {
+					durable = Math.max(durable, last);
+					synced.notifyAll();
+				}
+			}
+		}
+	}
+
+	private static byte[] encode(String key, String value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			output.writeByte(value == null ? DELETE : PUT);
+			output.writeUTF(key);
+			if (value != null) {
+				byte[] data = value.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(data.length);
+				output.write(data);
+			}
+		} catch (IOException e) {
+			// Can't happen writing to a byte array.
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	@FunctionalInterface
+	public interface Clearer {
+
+		void clear() throws Exception;
+
+	}
+
+	@FunctionalInterface
+	public interface Replayer {
+
+		/**
+		 * @param writes The writes of the batch in order, deletes map to null.
+		 */
+		void replay(Map<String, String> writes) throws Exception;
+
+	}
+
+	private static class Record {
+
+		private final long sequence;
+		private final byte[] bytes;
+
+		Record(long sequence, byte[] bytes) {
+			this.sequence = sequence;
+			this.bytes = bytes;
+		}
+
+	}
+
+	private static class Entry {
+
+		private final String key, value;
+
+		Entry(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.sitrica.core.database.serializers;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.inventory.ItemStack;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.sitrica.core.database.Database;
+import com.sitrica.core.database.Serializer;
+
+/**
+ * Stores every distinct ItemStack once in a side table, values only reference it by the hash of it's YAML.
+ * <p>
+ * Deserialized items are interned as prototypes that are never handed out, every read gets a clone.
+ * Values serialized inline by {@link ItemStackSerializer} are still read.
+ * <p>
+ * Until the side table write of an item ran, values also carry the item inline,
+ * so a crash before the side table caught up doesn't leave values referencing a missing hash.
+ * A side table that can't be read fails the read with a {@link com.sitrica.core.database.DatabaseUnavailableException}
+ * instead, so it isn't mistaken for an item that was never stored.
+ */
+public class DedupItemStackSerializer implements Serializer<ItemStack> {
+
+	private final Set<String> stored = ConcurrentHashMap.newKeySet();
+	// The YAML of the hashes whose side table write is still queued.
+	private final Map<String, String> unsaved = new ConcurrentHashMap<>();
+	private final Cache<ItemStack, String> hashes;
+	private final Cache<String, ItemStack> prototypes;
+	private final Database<String> items;
+
+	/**
+	 * @param items The side table of the item YAML keyed by it's hash.
+	 * @param cacheSize The maximum amount of distinct items kept in memory.
+	 */
+	public DedupItemStackSerializer(Database<String> items, int cacheSize) {
+		this.hashes = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+		this.prototypes = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+		this.items = items;
+	}
+
+	@Override
+	public JsonElement serialize(ItemStack item, Type type, JsonSerializationContext context) {
+		JsonObject object = new JsonObject();
+		String hash = store(item);
+		object.addProperty("ItemHash", hash);
+		String yaml = unsaved.get(hash);
+		if (yaml != null)
+			object.addProperty("ItemStack", yaml);
+		return object;
+	}
+
+	@Override
+	public ItemStack deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
+		JsonObject object = json.getAsJsonObject();
+		if (object.has("ItemStack"))
+			return ItemStackSerializer.fromYaml(object.get("ItemStack").getAsString());
+		String hash = object.get("ItemHash").getAsString();
+		ItemStack prototype = prototypes.getIfPresent(hash);
+		if (prototype == null) {
+			// A failed lookup throws a DatabaseUnavailableException out of the read, only a hash that isn't stored fails to parse.
+			String yaml = items.get(hash);
+			if (yaml == null)
+				throw new JsonParseException("There is no stored ItemStack with the hash " + hash);
+			prototype = ItemStackSerializer.fromYaml(yaml);
+			if (prototype == null)
+				return null;
+			prototypes.put(hash, prototype);
+			hashes.put(prototype.clone(), hash);
+			stored.add(hash);
+		}
+		return prototype.clone();
+	}
+
+	/**
+	 * Stores the item in the side table if it isn't yet.
+	 *
+	 * @param item The ItemStack to store.
+	 * @return The hash the item is stored under.
+	 */
+	public String store(ItemStack item) {
+		String cached = hashes.getIfPresent(item);
+		if (cached != null)
+			return cached;
+		String yaml = ItemStackSerializer.toYaml(item);
+		// The first 128 bits of SHA-256, fits the 36 character keys of the tables.
+		String hash = Hashing.sha256().hashString(yaml, StandardCharsets.UTF_8).toString().substring(0, 32);
+		// Stored on a copy, the item can still be modified by it's owner.
+		hashes.put(item.clone(), hash);
+		if (stored.add(hash)) {
+			unsaved.put(hash, yaml);
+			items.put(hash, yaml);
+			items.getPendingWrites().thenRun(() -> unsaved.remove(hash));
+		}
+		return hash;
+	}
+
+	/**
+	 * @return The amount of distinct items interned in memory.
+	 */
+	public long getCached() {
+		return prototypes.size();
+	}
+
+}
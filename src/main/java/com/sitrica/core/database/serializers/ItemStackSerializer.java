@@ -20,6 +20,21 @@ public class ItemStackSerializer implements Serializer<ItemStack> {
 	@Override
 	public JsonElement serialize(ItemStack item, Type type, JsonSerializationContext context) {
 		JsonObject object = new JsonObject();
+		object.addProperty("ItemStack", toYaml(item));
+		return object;
+	}
+
+	@Override
+	public ItemStack deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
+		JsonObject object = json.getAsJsonObject();
+		return fromYaml(object.get("ItemStack").getAsString());
+	}
+
+	/**
+	 * @param item The ItemStack to serialize.
+	 * @return The ItemStack as a Bukkit YAML configuration.
+	 */
+	public static String toYaml(ItemStack item) {
 		String serialized = null;
 		try {
 			FileConfiguration fc = new Utf8YamlConfiguration();
@@ -29,16 +44,16 @@ public class ItemStackSerializer implements Serializer<ItemStack> {
 			if (serialized == null)
 				serialized = "";
 		}
-		object.addProperty("ItemStack", serialized);
-		return object;
+		return serialized;
 	}
 
-	@Override
-	public ItemStack deserialize(JsonElement json, Type type, JsonDeserializationContext context) throws JsonParseException {
-		JsonObject object = json.getAsJsonObject();
+	/**
+	 * @param serialized The YAML configuration from {@link #toYaml(ItemStack)}.
+	 * @return The ItemStack, or null if the YAML is invalid.
+	 */
+	public static ItemStack fromYaml(String serialized) {
 		FileConfiguration configuration = new Utf8YamlConfiguration();
 		try {
-			String serialized = object.get("ItemStack").getAsString();
 			configuration.loadFromString(serialized);
 			return configuration.getItemStack("ItemStack", new ItemStack(Material.AIR));
 		} catch (InvalidConfigurationException e) {
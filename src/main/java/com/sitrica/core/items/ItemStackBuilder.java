@@ -6,10 +6,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang.Validate;
@@ -26,7 +24,7 @@ import com.sitrica.core.SourPlugin;
 import com.sitrica.core.messaging.Formatting;
 import com.sitrica.core.objects.StringList;
 import com.sitrica.core.placeholders.Placeholder;
-import com.sitrica.core.placeholders.Placeholders;
+import com.sitrica.core.placeholders.PlaceholderEngine;
 import com.sitrica.core.placeholders.SimplePlaceholder;
 import com.sitrica.core.utils.DeprecationUtils;
 import com.sitrica.core.utils.Utils;
@@ -203,37 +201,6 @@ public class ItemStackBuilder {
 		return this;
 	}
 
-	private String applyPlaceholders(String input) {
-		// Registered Placeholders
-		for (Entry<Placeholder<?>, Object> entry : placeholders.entrySet()) {
-			Placeholder<?> placeholder = entry.getKey();
-			for (String syntax : placeholder.getSyntaxes()) {
-				if (!input.toLowerCase().contains(syntax.toLowerCase()))
-					continue;
-				if (placeholder instanceof SimplePlaceholder) {
-					SimplePlaceholder simple = (SimplePlaceholder) placeholder;
-					input = input.replaceAll(Pattern.quote(syntax), simple.get());
-				} else {
-					input = input.replaceAll(Pattern.quote(syntax), placeholder.replace_i(entry.getValue()));
-				}
-			}
-		}
-		// Default Placeholders
-		for (Placeholder<?> placeholder : Placeholders.getPlaceholders()) {
-			for (String syntax : placeholder.getSyntaxes()) {
-				if (!input.toLowerCase().contains(syntax.toLowerCase()))
-					continue;
-				if (placeholder instanceof SimplePlaceholder) {
-					SimplePlaceholder simple = (SimplePlaceholder) placeholder;
-					input = input.replaceAll(Pattern.quote(syntax), simple.get());
-				} else if (defaultPlaceholderObject != null && placeholder.getType().isAssignableFrom(defaultPlaceholderObject.getClass())) {
-					input = input.replaceAll(Pattern.quote(syntax), placeholder.replace_i(defaultPlaceholderObject));
-				}
-			}
-		}
-		return input;
-	}
-
 	/**
 	 * Grab the final ItemStack built from the builder.
 	 */
@@ -247,10 +214,11 @@ public class ItemStackBuilder {
 					.orElse(instance.getConfig())
 					.getConfigurationSection(node);
 		}
+		PlaceholderEngine engine = new PlaceholderEngine(placeholders, defaultPlaceholderObject);
 		String title = section.getString("title", "");
-		title = applyPlaceholders(title);
+		title = engine.apply(title);
 		String matName = section.getString("material", "STONE");
-		Material material = Utils.materialAttempt(applyPlaceholders(matName), "STONE");
+		Material material = Utils.materialAttempt(engine.apply(matName), "STONE");
 		ItemStack itemstack = new ItemStack(material);
 		ItemMeta meta = itemstack.getItemMeta();
 		meta.setDisplayName(Formatting.color(title));
@@ -259,8 +227,8 @@ public class ItemStackBuilder {
 			lores = section.getStringList("description");
 		lores.addAll(additionalLores);
 		if (lores != null && !lores.isEmpty()) {
-			meta.setLore(lores.parallelStream()
-					.map(lore -> applyPlaceholders(lore))
+			meta.setLore(lores.stream()
+					.map(engine::apply)
 					.map(lore -> Formatting.color(lore))
 					.collect(Collectors.toList()));
 		}
@@ -309,7 +277,7 @@ public class ItemStackBuilder {
 			}
 		}
 		// Sets the itemMeta
-		itemstack.setItemMeta(DeprecationUtils.setupItemMeta(meta, applyPlaceholders(section.getString("material-meta", ""))));
+		itemstack.setItemMeta(DeprecationUtils.setupItemMeta(meta, engine.apply(section.getString("material-meta", ""))));
 		return itemstack;
 	}
 
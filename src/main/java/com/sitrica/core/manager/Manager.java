@@ -4,19 +4,19 @@ import java.lang.reflect.Type;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.event.Listener;
 
 import com.sitrica.core.SourPlugin;
+import com.sitrica.core.database.CounterStore;
 import com.sitrica.core.database.Database;
-import com.sitrica.core.database.H2Database;
-import com.sitrica.core.database.MySQLDatabase;
 import com.sitrica.core.database.Serializer;
 
 public abstract class Manager implements Listener {
 
-	private final Map<Class<?>, Database<?>> databases = new HashMap<>();
 	private final boolean listener;
 
 	protected Manager(boolean listener) {
@@ -25,9 +25,12 @@ public abstract class Manager implements Listener {
 
 	/**
 	 * 	database:
-		    # Types are MYSQL and H2.
+		    # Types are MYSQL, H2 and H2_MEMORY.
 		    type: "H2"
 		    autosave: "5 minutes"
+		    # The connections shared by every table, see DatabaseRegistry.
+		    pool-size: 4
+		    pool-timeout: 30000
 		    # Table name configuration for databases.
 		    mines-table: "Mines"
 		    mysql:
@@ -35,6 +38,35 @@ public abstract class Manager implements Listener {
 		        address: "localhost"
 		        password: "password"
 		        name: "mines-example"
+		        # Writes are journaled to a local file while MySQL is unavailable and replayed once it's back.
+		        circuit-breaker:
+		            # Failed statements in a row before MySQL is considered unavailable.
+		            failures: 3
+		            retry: "5 seconds"
+		        # Optional read replicas, see ReplicaRouter.
+		        replicas: []
+		        replica-balancing: "ROUND_ROBIN"
+		        max-replica-lag: "5 seconds"
+		    # Answers lookups of missing keys from memory, see KeyFilter.
+		    key-filter:
+		        enabled: false
+		        expected-keys: 10000
+		        false-positive-rate: 0.01
+		        rebuild: "30 minutes"
+		    # Stores every distinct ItemStack once in a side table, values reference it by hash.
+		    item-dedup:
+		        enabled: false
+		        table: "Items"
+		        # The maximum amount of distinct items kept in memory.
+		        cache-size: 1000
+		    # How often the deltas of a CounterStore are written.
+		    counters-flush: "5 seconds"
+		    # Engine tuning of H2, see H2Settings.
+		    h2:
+		        cache-size: -1
+		        write-delay: -1
+		        compress: false
+		        shared-connection: false
 	 * 	
 	 * @param <T> The type of this database, used to format the database.
 	 * @param section The configuration section of the config.yml where all the database information is defined, there is a set pattern.
@@ -47,55 +79,57 @@ public abstract class Manager implements Listener {
 		return getNewDatabase(instance, tableNode, type, new HashMap<>());
 	}
 
-	@SuppressWarnings("unchecked")
 	public <T, S> Database<T> getNewDatabase(SourPlugin instance, String tableNode, Class<T> type, Map<Type, Serializer<?>> serializers) throws IllegalAccessException {
-		if (databases.containsKey(type))
-			return (Database<T>) databases.get(type);
-
 		ConfigurationSection section = instance.getConfig().getConfigurationSection("database");
 		if (section == null)
 			throw new IllegalAccessException("There was no database configuration section for " + instance.getName());
 		String table = section.getString(tableNode, tableNode);
+		return instance.getDatabaseRegistry().getDatabase(table, type, serializers);
+	}
 
-		if (section.getString("type", "H2").equalsIgnoreCase("H2"))
-			return getFileDatabase(instance, table, type, serializers);
+	protected <T> Database<T> getFileDatabase(SourPlugin instance, String table, Class<T> type, Map<Type, Serializer<?>> serializers) {
+		return instance.getDatabaseRegistry().getFileDatabase(table, type, serializers);
+	}
 
-		String address = section.getString("mysql.address", "localhost");
-		String password = section.getString("mysql.password", "1234");
-		String name = section.getString("mysql.name", "username");
-		String user = section.getString("mysql.user", "root");
-		Database<T> database = null;
-		try {
-			database = new MySQLDatabase<>(address, name, table, user, password, type, serializers);
-			instance.debugMessage("MySQL connection " + address + " was a success!");
-			databases.put(type, database);
-			return database;
-		} catch (SQLException exception) {
-			instance.consoleMessage("&cMySQL connection failed!");
-			instance.consoleMessage("Address: " + address + " with user: " + user);
-			instance.consoleMessage("Reason: " + exception.getMessage());
-		} finally {
-			if (database == null) {
-				instance.consoleMessage("Attempting to use H2 instead...");
-				database = getFileDatabase(instance, table, type, serializers);
-			}
-		}
-		return database;
+	/**
+	 * Grab a store of numeric counters in the configured database, see {@link CounterStore}.
+	 * 
+	 * @param instance The SourPlugin owning the counters.
+	 * @param tableNode The table node within the database section that the counters should map to.
+	 * @return The CounterStore of the table.
+	 * @throws IllegalAccessException If the configuration section doesn't exist.
+	 * @throws SQLException If the database couldn't be reached.
+	 */
+	public CounterStore getCounterStore(SourPlugin instance, String tableNode) throws IllegalAccessException, SQLException {
+		ConfigurationSection section = instance.getConfig().getConfigurationSection("database");
+		if (section == null)
+			throw new IllegalAccessException("There was no database configuration section for " + instance.getName());
+		return instance.getDatabaseRegistry().getCounterStore(section.getString(tableNode, tableNode));
 	}
 
-	@SuppressWarnings("unchecked")
-	protected <T> Database<T> getFileDatabase(SourPlugin instance, String table, Class<T> type, Map<Type, Serializer<?>> serializers) {
-		if (databases.containsKey(type))
-			return (H2Database<T>) databases.get(type);
-		Database<T> database = null;
-		try {
-			database = new H2Database<>(instance, table, type, serializers);
-			instance.debugMessage("Using H2 database for " + type.getSimpleName() + " data");
-			databases.put(type, database);
-		} catch (ClassNotFoundException | SQLException e) {
-			e.printStackTrace();
-		}
-		return database;
+	/**
+	 * Runs a task async after every task submitted before it for the same key, see {@link SourPlugin#getKeyedExecutor()}.
+	 * 
+	 * @param instance The SourPlugin to run the task on.
+	 * @param key The key to keep the tasks in order for, such as a player's UUID.
+	 * @param task The task to run.
+	 * @return A CompletableFuture completed once the task ran.
+	 */
+	protected CompletableFuture<Void> execute(SourPlugin instance, Object key, Runnable task) {
+		return instance.getKeyedExecutor().execute(key, task);
+	}
+
+	/**
+	 * Runs a task async after every task submitted before it for the same key, see {@link SourPlugin#getKeyedExecutor()}.
+	 * 
+	 * @param <R> The result of the task.
+	 * @param instance The SourPlugin to run the task on.
+	 * @param key The key to keep the tasks in order for, such as a player's UUID.
+	 * @param task The task to run.
+	 * @return A CompletableFuture of the result of the task.
+	 */
+	protected <R> CompletableFuture<R> submit(SourPlugin instance, Object key, Supplier<R> task) {
+		return instance.getKeyedExecutor().submit(key, task);
 	}
 
 	public boolean hasListener() {
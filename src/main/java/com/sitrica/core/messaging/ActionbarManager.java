@@ -0,0 +1,217 @@
+package com.sitrica.core.messaging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.sitrica.core.SourPlugin;
+import com.sitrica.core.utils.IntervalUtils;
+
+/**
+ * Shares the actionbar of every player between the features showing something on it.
+ * <p>
+ * Features show lines under their own source with a priority and a duration, the line of the highest priority is the one shown,
+ * the most recently shown line winning ties. A single task updates every player each tick, a line is only sent again
+ * when it's text changes or before the client fades it out.
+ * <p>
+ * 	messaging:
+ * 	    actionbar:
+ * 	        # How often an unchanged line is sent again to keep it from fading.
+ * 	        resend: 2 seconds
+ */
+public class ActionbarManager {
+
+	private final Map<UUID, Map<String, Line>> lines = new HashMap<>();
+	private final Map<UUID, Shown> shown = new HashMap<>();
+	private final SourPlugin instance;
+	private final long resend;
+	private BukkitTask task;
+	private long order;
+
+	public ActionbarManager(SourPlugin instance) {
+		this.instance = instance;
+		this.resend = IntervalUtils.getMilliseconds(instance.getConfig().getString("messaging.actionbar.resend", "2 seconds"));
+	}
+
+	/**
+	 * Shows a line on the actionbar of the player, replacing the line the source was showing.
+	 *
+	 * @param player The Player to show the line to.
+	 * @param source The feature showing the line, e.g: combat
+	 * @param priority The priority of the line, higher priorities are shown over lower ones.
+	 * @param duration How long to show the line for in milliseconds, 0 or less to show it until removed.
+	 * @param message The already colored line.
+	 */
+	public void show(Player player, String source, int priority, long duration, String message) {
+		show(player, source, priority, duration, () -> message);
+	}
+
+	/**
+	 * Shows a line that changes on the actionbar of the player, replacing the line the source was showing.
+	 * The line is read every tick while it's shown, on the main thread, and only sent when it changes.
+	 *
+	 * @param player The Player to show the line to.
+	 * @param source The feature showing the line, e.g: combat
+	 * @param priority The priority of the line, higher priorities are shown over lower ones.
+	 * @param duration How long to show the line for in milliseconds, 0 or less to show it until removed.
+	 * @param message Supplies the already colored line.
+	 */
+	public synchronized void show(Player player, String source, int priority, long duration, Supplier<String> message) {
+		long expires = duration <= 0 ? Long.MAX_VALUE : System.currentTimeMillis() + duration;
+		lines.computeIfAbsent(player.getUniqueId(), uuid -> new HashMap<>()).put(source, new Line(message, priority, expires, order++));
+		if (task == null)
+			task = Bukkit.getScheduler().runTaskTimer(instance, this::tick, 1, 1);
+	}
+
+	/**
+	 * Removes the line the source is showing to the player.
+	 *
+	 * @param player The Player the line is shown to.
+	 * @param source The feature that showed the line.
+	 */
+	public synchronized void remove(Player player, String source) {
+		Map<String, Line> sources = lines.get(player.getUniqueId());
+		if (sources != null)
+			sources.remove(source);
+	}
+
+	/**
+	 * Removes every line shown to the player.
+	 *
+	 * @param player The Player to clear the actionbar of.
+	 */
+	public synchronized void clear(Player player) {
+		Map<String, Line> sources = lines.get(player.getUniqueId());
+		if (sources != null)
+			sources.clear();
+	}
+
+	/**
+	 * Updates the actionbar of every player, this is called every tick while lines are shown.
+	 * The winning lines are picked while holding the manager, their text is read and sent outside of it.
+	 */
+	public void tick() {
+		long now = System.currentTimeMillis();
+		List<Runnable> sends = new ArrayList<>();
+		synchronized (this) {
+			Iterator<Entry<UUID, Map<String, Line>>> iterator = lines.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Entry<UUID, Map<String, Line>> entry = iterator.next();
+				UUID uuid = entry.getKey();
+				Player player = Bukkit.getPlayer(uuid);
+				if (player == null || !player.isOnline()) {
+					shown.remove(uuid);
+					iterator.remove();
+					continue;
+				}
+				Map<String, Line> sources = entry.getValue();
+				sources.values().removeIf(line -> line.expires <= now);
+				Entry<String, Line> winner = null;
+				for (Entry<String, Line> source : sources.entrySet()) {
+					Line line = source.getValue();
+					if (winner == null || line.priority > winner.getValue().priority || (line.priority == winner.getValue().priority && line.order > winner.getValue().order))
+						winner = source;
+				}
+				Shown last = shown.get(uuid);
+				if (winner == null) {
+					// Clears the line that was shown instead of letting it fade.
+					if (last != null)
+						sends.add(() -> Actionbar.sendActionBar(player, ""));
+					shown.remove(uuid);
+					iterator.remove();
+					continue;
+				}
+				String source = winner.getKey();
+				Line line = winner.getValue();
+				sends.add(() -> send(player, source, line, last, now));
+			}
+			if (lines.isEmpty() && task != null) {
+				task.cancel();
+				task = null;
+			}
+		}
+		for (Runnable send : sends) {
+			try {
+				send.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void send(Player player, String source, Line line, Shown last, long now) {
+		String text;
+		try {
+			text = line.message.get();
+		} catch (RuntimeException e) {
+			// A failing line is removed, so it doesn't fail every tick.
+			e.printStackTrace();
+			remove(player.getUniqueId(), source, line);
+			return;
+		}
+		if (text == null)
+			text = "";
+		if (last != null && last.text.equals(text) && now - last.sent < resend)
+			return;
+		Actionbar.sendActionBar(player, text);
+		synchronized (this) {
+			// The player could have left or had their lines cleared while sending.
+			if (lines.containsKey(player.getUniqueId()))
+				shown.put(player.getUniqueId(), new Shown(text, now));
+		}
+	}
+
+	private synchronized void remove(UUID uuid, String source, Line line) {
+		Map<String, Line> sources = lines.get(uuid);
+		if (sources != null)
+			sources.remove(source, line);
+	}
+
+	/**
+	 * Stops the task and forgets every line, call when the plugin disables.
+	 */
+	public synchronized void close() {
+		if (task != null)
+			task.cancel();
+		task = null;
+		lines.clear();
+		shown.clear();
+	}
+
+	private static class Line {
+
+		private final Supplier<String> message;
+		private final long expires, order;
+		private final int priority;
+
+		Line(Supplier<String> message, int priority, long expires, long order) {
+			this.priority = priority;
+			this.message = message;
+			this.expires = expires;
+			this.order = order;
+		}
+
+	}
+
+	private static class Shown {
+
+		private final String text;
+		private final long sent;
+
+		Shown(String text, long sent) {
+			this.text = text;
+			this.sent = sent;
+		}
+
+	}
+
+}
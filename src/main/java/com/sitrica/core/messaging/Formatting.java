@@ -3,21 +3,29 @@ package com.sitrica.core.messaging;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.bukkit.ChatColor;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.sitrica.core.SourPlugin;
 
 public class Formatting {
 
+	// The characters translateAlternateColorCodes turns into color codes.
+	private static final String CODES = "0123456789AaBbCcDdEeFfKkLlMmNnOoRrXx";
+
+	// Guava evicts the least recently used translations once full.
+	private static final Cache<String, String> COLORED = CacheBuilder.newBuilder()
+			.maximumSize(2048)
+			.build();
+
 	public static String messagesPrefixed(SourPlugin instance, ConfigurationSection section, String... nodes) {
 		FileConfiguration messages = instance.getConfiguration("messages").orElse(instance.getConfig());
 		String complete = messages.getString("messages.prefix", instance.getPrefix());
-		return Formatting.color(complete + messages(section, Arrays.copyOfRange(nodes, 0, nodes.length)));
+		return Formatting.colorCached(complete + messages(section, Arrays.copyOfRange(nodes, 0, nodes.length)));
 	}
 
 	public static String messages(ConfigurationSection section, String... nodes) {
@@ -32,39 +40,91 @@ public class Formatting {
 				complete = section.getString(node, "Error " + section.getCurrentPath() + "." + node) + " " + complete;
 			i++;
 		}
-		return Formatting.color(complete);
+		return Formatting.colorCached(complete);
 	}
 
+	/**
+	 * Translates only the &#RRGGBB hex colors of the input.
+	 *
+	 * @param input The text to color.
+	 * @return The colored text, empty if the input is null.
+	 */
 	public static String colorHex(String input) {
 		if (input == null) return "";
+		return translate(input, false);
+	}
+
+	/**
+	 * Translates the & color codes and the &#RRGGBB hex colors of the input.
+	 * Text without an & is returned as is.
+	 *
+	 * @param input The text to color.
+	 * @return The colored text, empty if the input is null.
+	 */
+	public static String color(String input) {
+		if (input == null) return "";
+		return translate(input, true);
+	}
 
-		Pattern hexPattern = Pattern.compile("&#([A-Fa-f0-9]{6})");
-		Matcher matcher = hexPattern.matcher(input);
-		StringBuffer buffer = new StringBuffer(input.length() + 32);
-
-		while(matcher.find()) {
-			String group = matcher.group(1);
-			matcher.appendReplacement(buffer, ChatColor.COLOR_CHAR
-					+ "x" + ChatColor.COLOR_CHAR
-					+ group.charAt(0)
-					+ ChatColor.COLOR_CHAR
-					+ group.charAt(1)
-					+ ChatColor.COLOR_CHAR
-					+ group.charAt(2)
-					+ ChatColor.COLOR_CHAR
-					+ group.charAt(3)
-					+ ChatColor.COLOR_CHAR
-					+ group.charAt(4)
-					+ ChatColor.COLOR_CHAR
-					+ group.charAt(5));
+	/**
+	 * Colors text that repeats, such as text read from the configurations, remembering the most recently used translations.
+	 * Don't use it for text with placeholders replaced, every replacement would take a spot in the cache.
+	 *
+	 * @param input The text to color.
+	 * @return The colored text, empty if the input is null.
+	 */
+	public static String colorCached(String input) {
+		if (input == null) return "";
+		if (input.indexOf('&') < 0)
+			return input;
+		String colored = COLORED.getIfPresent(input);
+		if (colored == null) {
+			colored = translate(input, true);
+			COLORED.put(input, colored);
 		}
+		return colored;
+	}
 
-		return matcher.appendTail(buffer).toString();
+	// A single scan for the & codes and hex colors, the same as translateAlternateColorCodes followed by the hex colors.
+	private static String translate(String input, boolean codes) {
+		int index = input.indexOf('&');
+		if (index < 0)
+			return input;
+		int length = input.length();
+		StringBuilder builder = null;
+		int last = 0;
+		for (; index >= 0 && index < length - 1; index = input.indexOf('&', index + 1)) {
+			char next = input.charAt(index + 1);
+			if (next == '#' && isHex(input, index + 2)) {
+				if (builder == null)
+					builder = new StringBuilder(length + 12);
+				builder.append(input, last, index).append(ChatColor.COLOR_CHAR).append('x');
+				for (int i = index + 2; i < index + 8; i++)
+					builder.append(ChatColor.COLOR_CHAR).append(input.charAt(i));
+				last = index + 8;
+				index += 7;
+			} else if (codes && CODES.indexOf(next) >= 0) {
+				if (builder == null)
+					builder = new StringBuilder(length);
+				builder.append(input, last, index).append(ChatColor.COLOR_CHAR).append(Character.toLowerCase(next));
+				last = index + 2;
+				index++;
+			}
+		}
+		if (builder == null)
+			return input;
+		return builder.append(input, last, length).toString();
 	}
 
-	public static String color(String input) {
-		if (input == null) return "";
-		return colorHex(ChatColor.translateAlternateColorCodes('&', input));
+	private static boolean isHex(String input, int start) {
+		if (start + 6 > input.length())
+			return false;
+		for (int i = start; i < start + 6; i++) {
+			char character = input.charAt(i);
+			if (!(character >= '0' && character <= '9') && !(character >= 'a' && character <= 'f') && !(character >= 'A' && character <= 'F'))
+				return false;
+		}
+		return true;
 	}
 
 	public static String colorAndStrip(String input) {
@@ -5,8 +5,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Pattern;
 
 import net.md_5.bungee.api.chat.ClickEvent;
 import net.md_5.bungee.api.chat.HoverEvent;
@@ -18,7 +16,7 @@ import org.bukkit.entity.Player;
 import com.google.common.collect.Sets;
 import com.sitrica.core.SourPlugin;
 import com.sitrica.core.placeholders.Placeholder;
-import com.sitrica.core.placeholders.Placeholders;
+import com.sitrica.core.placeholders.PlaceholderEngine;
 import com.sitrica.core.placeholders.SimplePlaceholder;
 
 public class ListMessageBuilder {
@@ -181,15 +179,16 @@ public class ListMessageBuilder {
 		List<TextComponent> list = new ArrayList<>();
 		if (configuration == null)
 			configuration = instance.getConfiguration("messages").orElse(instance.getConfig());
+		PlaceholderEngine engine = new PlaceholderEngine(placeholders, defaultPlaceholderObject).withNewlines();
 		boolean usedPrefix = false;
 		for (String string : configuration.getStringList(node)) {
 			if (prefix && !usedPrefix) {
-				string = instance.getPrefix() + " " + Formatting.color(string);
+				string = instance.getPrefix() + " " + Formatting.colorCached(string);
 				usedPrefix = true;
 			} else {
-				string = Formatting.color(string);
+				string = Formatting.colorCached(string);
 			}
-			TextComponent component = new TextComponent(applyPlaceholders(string));
+			TextComponent component = new TextComponent(engine.apply(string));
 			if (hoverEvents.containsKey(list.size() + 1)) component.setHoverEvent(hoverEvents.get(list.size() + 1));
 			if (clickEvents.containsKey(list.size() + 1)) component.setClickEvent(clickEvents.get(list.size() + 1));
 			list.add(component);
@@ -197,50 +196,6 @@ public class ListMessageBuilder {
 		return list;
 	}
 
-	private String applyPlaceholders(String input) {
-		// Registered Placeholders
-		for (Entry<Placeholder<?>, Object> entry : placeholders.entrySet()) {
-			Placeholder<?> placeholder = entry.getKey();
-			for (String syntax : placeholder.getSyntaxes()) {
-				if (!input.toLowerCase().contains(syntax.toLowerCase()))
-					continue;
-				if (placeholder instanceof SimplePlaceholder) {
-					SimplePlaceholder simple = (SimplePlaceholder) placeholder;
-					input = input.replaceAll(Pattern.quote(syntax), simple.get());
-				} else {
-					String replacement = placeholder.replace_i(entry.getValue());
-					if (replacement != null)
-						input = input.replaceAll(Pattern.quote(syntax), replacement);
-				}
-			}
-		}
-		// Default Placeholders
-		for (Placeholder<?> placeholder : Placeholders.getPlaceholders()) {
-			for (String syntax : placeholder.getSyntaxes()) {
-				if (!input.toLowerCase().contains(syntax.toLowerCase()))
-					continue;
-				if (placeholder instanceof SimplePlaceholder) {
-					SimplePlaceholder simple = (SimplePlaceholder) placeholder;
-					input = input.replaceAll(Pattern.quote(syntax), simple.get());
-				} else if (defaultPlaceholderObject != null && placeholder.getType().isAssignableFrom(defaultPlaceholderObject.getClass())) {
-					String replacement = placeholder.replace_i(defaultPlaceholderObject);
-					if (replacement != null)
-						input = input.replaceAll(Pattern.quote(syntax), replacement);
-				}
-			}
-		}
-		// This allows users to insert new lines into their lores.
-		int i = instance.getConfig().getInt("general.new-lines", 4); //The max about of new lines users are allowed.
-		while (input.contains("%newline%") || input.contains("%nl%")) {
-			input = input.replaceAll(Pattern.quote("%newline%"), "\n");
-			input = input.replaceAll(Pattern.quote("%nl%"), "\n");
-			i--;
-			if (i <= 0)
-				break;
-		}
-		return input;
-	}
-
 	/**
 	 * Adds a hover event to the message
 	 * @param line The line to add the hover event to.
@@ -5,14 +5,15 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.function.Function;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import net.md_5.bungee.api.chat.ClickEvent;
 import net.md_5.bungee.api.chat.HoverEvent;
 import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
@@ -21,7 +22,7 @@ import com.google.common.collect.Sets;
 import com.sitrica.core.SourPlugin;
 import com.sitrica.core.objects.StringList;
 import com.sitrica.core.placeholders.Placeholder;
-import com.sitrica.core.placeholders.Placeholders;
+import com.sitrica.core.placeholders.PlaceholderEngine;
 import com.sitrica.core.placeholders.SimplePlaceholder;
 
 public class MessageBuilder {
@@ -245,56 +246,15 @@ public class MessageBuilder {
 	public TextComponent get() {
 		if (section == null)
 			section = instance.getConfiguration("messages").orElse(instance.getConfig());
-		if (prefix)
-			complete = new TextComponent(Formatting.messagesPrefixed(instance, section, nodes).trim());
-		else
-			complete = new TextComponent(Formatting.messages(section, nodes).trim());
-		complete = new TextComponent(applyPlaceholders(complete.getText()).trim());
+		MessageTemplate template = MessageTemplate.get(instance, section, prefix, nodes);
+		complete = new TextComponent(applyPlaceholders(template).trim());
 		return complete;
 	}
 
-	private String applyPlaceholders(String input) {
-		// Registered Placeholders
-		for (Entry<Placeholder<?>, Object> entry : placeholders.entrySet()) {
-			Placeholder<?> placeholder = entry.getKey();
-			for (String syntax : placeholder.getSyntaxes()) {
-				if (!input.toLowerCase().contains(syntax.toLowerCase()))
-					continue;
-				if (placeholder instanceof SimplePlaceholder) {
-					SimplePlaceholder simple = (SimplePlaceholder) placeholder;
-					input = input.replaceAll(Pattern.quote(syntax), simple.get());
-				} else {
-					String replacement = placeholder.replace_i(entry.getValue());
-					if (replacement != null)
-						input = input.replaceAll(Pattern.quote(syntax), replacement);
-				}
-			}
-		}
-		// Default Placeholders
-		for (Placeholder<?> placeholder : Placeholders.getPlaceholders()) {
-			for (String syntax : placeholder.getSyntaxes()) {
-				if (!input.toLowerCase().contains(syntax.toLowerCase()))
-					continue;
-				if (placeholder instanceof SimplePlaceholder) {
-					SimplePlaceholder simple = (SimplePlaceholder) placeholder;
-					input = input.replaceAll(Pattern.quote(syntax), simple.get());
-				} else if (defaultPlaceholderObject != null && placeholder.getType().isAssignableFrom(defaultPlaceholderObject.getClass())) {
-					String replacement = placeholder.replace_i(defaultPlaceholderObject);
-					if (replacement != null)
-						input = input.replaceAll(Pattern.quote(syntax), replacement);
-				}
-			}
-		}
-		// This allows users to insert new lines into their lores.
-		int i = instance.getConfig().getInt("general.new-lines", 4); //The max about of new lines users are allowed.
-		while (input.contains("%newline%") || input.contains("%nl%")) {
-			input = input.replaceAll(Pattern.quote("%newline%"), "\n");
-			input = input.replaceAll(Pattern.quote("%nl%"), "\n");
-			i--;
-			if (i <= 0)
-				break;
-		}
-		return input;
+	private String applyPlaceholders(MessageTemplate template) {
+		return new PlaceholderEngine(placeholders, defaultPlaceholderObject)
+				.withNewlines()
+				.apply(template);
 	}
 
 	/**
@@ -321,11 +281,17 @@ public class MessageBuilder {
 		int fadeOut = section.getInt(nodes[0] + ".fadeOut", 20);
 		int fadeIn = section.getInt(nodes[0] + ".fadeIn", 20);
 		int stay = section.getInt(nodes[0] + ".stay", 200);
-		title = applyPlaceholders(title).replaceAll("\n", "");
-		subtitle = applyPlaceholders(subtitle).replaceAll("\n", "");
+		title = applyPlaceholders(MessageTemplate.compile(title)).replaceAll("\n", "");
+		subtitle = applyPlaceholders(MessageTemplate.compile(subtitle)).replaceAll("\n", "");
 		Player[] players = senders.parallelStream()
 				.filter(sender -> sender instanceof Player)
 				.toArray(Player[]::new);
+		MessageQueue queue = instance.getMessageQueue();
+		if (queue.isEnabled()) {
+			for (Player player : players)
+				queue.title(player, Formatting.color(title), Formatting.color(subtitle), fadeIn, stay, fadeOut);
+			return;
+		}
 		if (senders != null && senders.size() > 0)
 			new Title.Builder()
 					.subtitle(subtitle)
@@ -343,13 +309,35 @@ public class MessageBuilder {
 		get();
 		complete = new TextComponent(complete.getText().replaceAll("\n", ""));
 		if (senders != null && senders.size() > 0) {
+			MessageQueue queue = instance.getMessageQueue();
 			for (CommandSender sender : senders) {
-				if (sender instanceof Player)
+				if (!(sender instanceof Player))
+					continue;
+				if (queue.isEnabled())
+					queue.actionbar((Player) sender, complete.getText());
+				else
 					Actionbar.sendActionBar((Player)sender, complete.getText());
 			}
 		}
 	}
 
+	/**
+	 * Shows the message on the actionbar of the players through the {@link ActionbarManager} of the plugin,
+	 * so it isn't overwritten by lines of a lower priority.
+	 *
+	 * @param source The feature showing the line, replacing the line it was showing.
+	 * @param priority The priority of the line, higher priorities are shown over lower ones.
+	 * @param duration How long to show the line for in milliseconds, 0 or less to show it until removed.
+	 */
+	public void showActionbar(String source, int priority, long duration) {
+		String text = get().getText().replaceAll("\n", "");
+		ActionbarManager manager = instance.getActionbarManager();
+		for (CommandSender sender : senders) {
+			if (sender instanceof Player)
+				manager.show((Player) sender, source, priority, duration, text);
+		}
+	}
+
 	/**
 	 * Adds a hover event to the message
 	 * @param hoverEvent The hover event.
@@ -379,8 +367,77 @@ public class MessageBuilder {
 		if (hoverEvent != null) complete.setHoverEvent(hoverEvent);
 		if (!senders.isEmpty()) {
 			for (CommandSender sender : senders)
-				sender.spigot().sendMessage(complete);
+				deliver(sender, complete);
+		}
+	}
+
+	// Goes through the MessageQueue of the plugin when it's enabled.
+	private void deliver(CommandSender sender, TextComponent component) {
+		MessageQueue queue = instance.getMessageQueue();
+		if (queue.isEnabled() && sender instanceof Player)
+			queue.chat((Player) sender, component);
+		else
+			sender.spigot().sendMessage(component);
+	}
+
+	/**
+	 * Sends the message to the senders, with each sender as the placeholder object of their own message.
+	 * See {@link #broadcast(Collection, Function, boolean)}
+	 */
+	public void broadcast() {
+		broadcast(senders, sender -> sender, false);
+	}
+
+	/**
+	 * Sends the message to the senders, with each sender as the placeholder object of their own message.
+	 * The messages are rendered off the main thread, so the placeholders of a sender must be safe to read asynchronously.
+	 * See {@link #broadcast(Collection, Function, boolean)}
+	 */
+	public void broadcastAsync() {
+		broadcast(senders, sender -> sender, true);
+	}
+
+	/**
+	 * Sends the message to many recipients, each with their own placeholder object.
+	 * <p>
+	 * The placeholders that are the same for everyone, the ones of this builder and the simple placeholders, are rendered once into a template.
+	 * Only the slots left for the placeholder object are rendered per recipient.
+	 * When async, the recipients are rendered in parallel off the main thread and the messages are sent in one task on the main thread.
+	 *
+	 * @param <R> The type of the recipients.
+	 * @param recipients The CommandSenders to send the message to.
+	 * @param object The placeholder object of a recipient, may return null.
+	 * @param async If the per recipient rendering should happen off the main thread.
+	 */
+	public <R extends CommandSender> void broadcast(Collection<R> recipients, Function<R, Object> object, boolean async) {
+		if (recipients.isEmpty())
+			return;
+		if (section == null)
+			section = instance.getConfiguration("messages").orElse(instance.getConfig());
+		MessageTemplate template = MessageTemplate.get(instance, section, prefix, nodes);
+		MessageTemplate shared = new PlaceholderEngine(placeholders, null).shared().fill(template);
+		List<R> copy = new ArrayList<>(recipients);
+		if (!async) {
+			for (R recipient : copy)
+				deliver(recipient, render(shared, object.apply(recipient)));
+			return;
 		}
+		Bukkit.getScheduler().runTaskAsynchronously(instance, () -> {
+			Stream<R> stream = copy.size() > 1 ? copy.parallelStream() : copy.stream();
+			// Collecting keeps the order of the recipients.
+			List<TextComponent> messages = stream.map(recipient -> render(shared, object.apply(recipient))).collect(Collectors.toList());
+			Bukkit.getScheduler().runTask(instance, () -> {
+				for (int i = 0; i < copy.size(); i++)
+					deliver(copy.get(i), messages.get(i));
+			});
+		});
+	}
+
+	private TextComponent render(MessageTemplate shared, Object object) {
+		TextComponent component = new TextComponent(new PlaceholderEngine(placeholders, object).withNewlines().apply(shared).trim());
+		if (clickEvent != null) component.setClickEvent(clickEvent);
+		if (hoverEvent != null) component.setHoverEvent(hoverEvent);
+		return component;
 	}
 
 	@Override
@@ -0,0 +1,290 @@
+package com.sitrica.core.messaging;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.sitrica.core.SourPlugin;
+import com.sitrica.core.utils.IntervalUtils;
+
+/**
+ * Queues the outbound messages of every player and sends them once per tick.
+ * <p>
+ * Identical messages within the dedupe window are only sent once, the chat lines of a tick are merged into one message,
+ * and only the latest actionbar and title of a tick are sent. Each channel has a token bucket per player,
+ * chat lines over the limit are dropped while actionbars and titles wait for a token.
+ * <p>
+ * 	messaging:
+ * 	    queue:
+ * 	        # If the MessageBuilders of the plugin send through the queue.
+ * 	        enabled: true
+ * 	        # Identical messages to a player within this time are only sent once.
+ * 	        dedupe: 1 second
+ * 	        limits:
+ * 	            chat:
+ * 	                # The most messages sent at once.
+ * 	                capacity: 20
+ * 	                # The messages regained every second.
+ * 	                per-second: 10
+ * 	            actionbar:
+ * 	                capacity: 5
+ * 	                per-second: 5
+ * 	            title:
+ * 	                capacity: 2
+ * 	                per-second: 1
+ */
+public class MessageQueue {
+
+	public enum Channel {
+		CHAT(20, 10), ACTIONBAR(5, 5), TITLE(2, 1);
+
+		private final int capacity, rate;
+
+		Channel(int capacity, int rate) {
+			this.capacity = capacity;
+			this.rate = rate;
+		}
+
+	}
+
+	private final Map<Channel, Double> capacities = new EnumMap<>(Channel.class), rates = new EnumMap<>(Channel.class);
+	private final Map<UUID, Outbound> outbound = new HashMap<>();
+	private long dropped, deduped, merged;
+	private final SourPlugin instance;
+	private final boolean enabled;
+	private final long window;
+	private BukkitTask task;
+
+	public MessageQueue(SourPlugin instance) {
+		this.instance = instance;
+		ConfigurationSection section = instance.getConfig().getConfigurationSection("messaging.queue");
+		this.enabled = section != null && section.getBoolean("enabled", false);
+		this.window = section == null ? 1000 : IntervalUtils.getMilliseconds(section.getString("dedupe", "1 second"));
+		for (Channel channel : Channel.values()) {
+			String node = "limits." + channel.name().toLowerCase();
+			capacities.put(channel, section == null ? channel.capacity : section.getDouble(node + ".capacity", channel.capacity));
+			rates.put(channel, section == null ? channel.rate : section.getDouble(node + ".per-second", channel.rate));
+		}
+	}
+
+	/**
+	 * @return If the MessageBuilders of the plugin send through the queue, set in the configuration.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Queues a chat message, merged with the other chat messages of the player this tick.
+	 *
+	 * @param player The Player to send to.
+	 * @param component The message to send.
+	 */
+	public synchronized void chat(Player player, BaseComponent component) {
+		Outbound outbound = getOutbound(player);
+		if (outbound.isDuplicate(Channel.CHAT, component.toLegacyText()))
+			return;
+		if (!outbound.take(Channel.CHAT)) {
+			dropped++;
+			return;
+		}
+		outbound.chat.add(component);
+		schedule();
+	}
+
+	/**
+	 * Queues an actionbar, replacing the actionbar queued for the player this tick.
+	 *
+	 * @param player The Player to send to.
+	 * @param message The already colored actionbar.
+	 */
+	public synchronized void actionbar(Player player, String message) {
+		Outbound outbound = getOutbound(player);
+		if (outbound.isDuplicate(Channel.ACTIONBAR, message))
+			return;
+		if (outbound.actionbar != null)
+			merged++;
+		outbound.actionbar = message;
+		schedule();
+	}
+
+	/**
+	 * Queues a title, replacing the title queued for the player this tick.
+	 *
+	 * @param player The Player to send to.
+	 * @param title The already colored title.
+	 * @param subtitle The already colored subtitle.
+	 */
+	public synchronized void title(Player player, String title, String subtitle, int fadeIn, int stay, int fadeOut) {
+		Outbound outbound = getOutbound(player);
+		if (outbound.isDuplicate(Channel.TITLE, title + "\n" + subtitle))
+			return;
+		if (outbound.title != null)
+			merged++;
+		outbound.title = new Object[] {title, subtitle, fadeIn, stay, fadeOut};
+		schedule();
+	}
+
+	/**
+	 * Sends everything queued, this is called every tick while messages are queued.
+	 */
+	public void flush() {
+		List<Runnable> sends = new ArrayList<>();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			Iterator<Entry<UUID, Outbound>> iterator = outbound.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Entry<UUID, Outbound> entry = iterator.next();
+				Outbound outbound = entry.getValue();
+				Player player = Bukkit.getPlayer(entry.getKey());
+				if (player == null || !player.isOnline()) {
+					iterator.remove();
+					continue;
+				}
+				if (!outbound.chat.isEmpty())
+					sends.add(chat(player, outbound.chat));
+				outbound.chat = new ArrayList<>();
+				if (outbound.actionbar != null && outbound.take(Channel.ACTIONBAR)) {
+					String actionbar = outbound.actionbar;
+					sends.add(() -> Actionbar.sendActionBar(player, actionbar));
+					outbound.actionbar = null;
+				}
+				if (outbound.title != null && outbound.take(Channel.TITLE)) {
+					Object[] title = outbound.title;
+					sends.add(() -> Title.sendTitle(player, (String) title[0], (String) title[1], (int) title[2], (int) title[3], (int) title[4]));
+					outbound.title = null;
+				}
+				outbound.recent.values().removeIf(time -> now - time >= window);
+				if (outbound.isIdle())
+					iterator.remove();
+			}
+			if (outbound.isEmpty() && task != null) {
+				task.cancel();
+				task = null;
+			}
+		}
+		sends.forEach(Runnable::run);
+	}
+
+	/**
+	 * Sends everything queued and stops the task, call when the plugin disables.
+	 */
+	public void close() {
+		flush();
+		synchronized (this) {
+			if (task != null)
+				task.cancel();
+			task = null;
+			outbound.clear();
+		}
+	}
+
+	/**
+	 * @return The amount of chat messages dropped for going over the limit.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return The amount of identical messages that weren't sent again.
+	 */
+	public synchronized long getDeduped() {
+		return deduped;
+	}
+
+	/**
+	 * @return The amount of chat lines, actionbars and titles that were merged or replaced within a tick.
+	 */
+	public synchronized long getMerged() {
+		return merged;
+	}
+
+	private Runnable chat(Player player, List<BaseComponent> lines) {
+		if (lines.size() == 1)
+			return () -> player.spigot().sendMessage(lines.get(0));
+		merged += lines.size() - 1;
+		TextComponent component = new TextComponent("");
+		for (int i = 0; i < lines.size(); i++) {
+			if (i > 0)
+				component.addExtra(new TextComponent("\n"));
+			component.addExtra(lines.get(i));
+		}
+		return () -> player.spigot().sendMessage(component);
+	}
+
+	private Outbound getOutbound(Player player) {
+		return outbound.computeIfAbsent(player.getUniqueId(), uuid -> new Outbound());
+	}
+
+	private void schedule() {
+		if (task == null)
+			task = Bukkit.getScheduler().runTaskTimer(instance, this::flush, 1, 1);
+	}
+
+	private class Outbound {
+
+		private final Map<Channel, Double> tokens = new EnumMap<>(Channel.class);
+		private final Map<String, Long> recent = new HashMap<>();
+		private List<BaseComponent> chat = new ArrayList<>();
+		private long refilled = System.currentTimeMillis();
+		private String actionbar;
+		private Object[] title;
+
+		Outbound() {
+			tokens.putAll(capacities);
+		}
+
+		private boolean isDuplicate(Channel channel, String message) {
+			long now = System.currentTimeMillis();
+			String key = channel.name() + ":" + message;
+			Long sent = recent.get(key);
+			if (sent == null || now - sent >= window) {
+				recent.put(key, now);
+				return false;
+			}
+			deduped++;
+			return true;
+		}
+
+		private boolean take(Channel channel) {
+			refill();
+			double left = tokens.get(channel);
+			if (left < 1)
+				return false;
+			tokens.put(channel, left - 1);
+			return true;
+		}
+
+		private void refill() {
+			long now = System.currentTimeMillis();
+			if (now <= refilled)
+				return;
+			for (Channel channel : Channel.values())
+				tokens.put(channel, Math.min(capacities.get(channel), tokens.get(channel) + (now - refilled) * rates.get(channel) / 1000));
+			refilled = now;
+		}
+
+		// Only forgotten once the buckets are full again, so a player can't be dropped to reset their limits.
+		private boolean isIdle() {
+			if (!chat.isEmpty() || actionbar != null || title != null || !recent.isEmpty())
+				return false;
+			refill();
+			return tokens.equals(capacities);
+		}
+
+	}
+
+}
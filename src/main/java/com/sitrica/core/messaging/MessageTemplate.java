@@ -0,0 +1,213 @@
+package com.sitrica.core.messaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sitrica.core.SourPlugin;
+
+/**
+ * A message compiled once from it's configuration nodes, split into the colored literal text and the placeholder slots in between.
+ * Slots are the %placeholder% tokens of the message, rendering only fills them in.
+ * <p>
+ * Templates are cached per section, nodes and prefix. Call {@link #invalidate()} when the messages are reloaded,
+ * {@link SourPlugin#reloadConfig()} already does.
+ */
+public class MessageTemplate {
+
+	// Weak keys compare by identity, so a reloaded configuration gets new templates and the old ones are collected.
+	private static final Cache<ConfigurationSection, Map<String, MessageTemplate>> TEMPLATES = CacheBuilder.newBuilder().weakKeys().build();
+
+	private final String[] literals, slots;
+	private final Set<String> syntaxes;
+	private final String text;
+	private final int length;
+
+	private MessageTemplate(String text) {
+		List<String> literals = new ArrayList<>(), slots = new ArrayList<>();
+		int last = 0, start = text.indexOf('%');
+		while (start >= 0) {
+			int end = text.indexOf('%', start + 1);
+			if (end < 0)
+				break;
+			if (isSlot(text, start, end + 1)) {
+				literals.add(text.substring(last, start));
+				slots.add(text.substring(start, end + 1));
+				last = end + 1;
+				start = text.indexOf('%', last);
+			} else {
+				// The closing % can still open the next slot, e.g: 50% off %item%
+				start = end;
+			}
+		}
+		literals.add(text.substring(last));
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.slots = slots.toArray(new String[slots.size()]);
+		this.syntaxes = Collections.unmodifiableSet(new HashSet<>(slots));
+		this.length = literals.stream().mapToInt(String::length).sum();
+		this.text = text;
+	}
+
+	private MessageTemplate(List<String> literals, List<String> slots) {
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.slots = slots.toArray(new String[slots.size()]);
+		this.syntaxes = Collections.unmodifiableSet(new HashSet<>(slots));
+		this.length = literals.stream().mapToInt(String::length).sum();
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < this.slots.length; i++)
+			builder.append(this.literals[i]).append(this.slots[i]);
+		this.text = builder.append(this.literals[this.slots.length]).toString();
+	}
+
+	/**
+	 * Grab the compiled template of the nodes, compiling it if it isn't cached.
+	 *
+	 * @param instance The SourPlugin the message belongs to, for the prefix.
+	 * @param section The ConfigurationSection the nodes are in.
+	 * @param prefix If the message starts with the prefix of the plugin.
+	 * @param nodes The nodes making up the message, joined with spaces.
+	 * @return The MessageTemplate of the message.
+	 */
+	public static MessageTemplate get(SourPlugin instance, ConfigurationSection section, boolean prefix, String... nodes) {
+		Map<String, MessageTemplate> templates = TEMPLATES.asMap().computeIfAbsent(section, key -> new ConcurrentHashMap<>());
+		String key = instance.getName() + (prefix ? ":prefix:" : ":") + String.join("\n", nodes);
+		return templates.computeIfAbsent(key, k -> {
+			// Formatting reverses the array it's given.
+			String[] copy = Arrays.copyOf(nodes, nodes.length);
+			return new MessageTemplate((prefix ? Formatting.messagesPrefixed(instance, section, copy) : Formatting.messages(section, copy)).trim());
+		});
+	}
+
+	/**
+	 * Compiles a template that isn't cached.
+	 *
+	 * @param text The already colored text.
+	 * @return The MessageTemplate of the text.
+	 */
+	public static MessageTemplate compile(String text) {
+		return new MessageTemplate(text);
+	}
+
+	/**
+	 * Clears every cached template, they're compiled again when next used.
+	 */
+	public static void invalidate() {
+		TEMPLATES.invalidateAll();
+	}
+
+	/**
+	 * @param syntax A placeholder syntax, e.g: %player%
+	 * @return true if the syntax is a slot of this template.
+	 */
+	public boolean hasSlot(String syntax) {
+		return syntaxes.contains(syntax);
+	}
+
+	/**
+	 * @return The syntaxes of the slots in this template.
+	 */
+	public Set<String> getSlots() {
+		return syntaxes;
+	}
+
+	/**
+	 * @param syntax The syntax to check for.
+	 * @return true if the syntax is anywhere in the text, including syntaxes that aren't slots.
+	 */
+	public boolean contains(String syntax) {
+		return isSlot(syntax, 0, syntax.length()) ? syntaxes.contains(syntax) : text.contains(syntax);
+	}
+
+	/**
+	 * Fills the slots with their values, slots without a value keep their syntax.
+	 *
+	 * @param values The values by the syntax of the slot.
+	 * @return The rendered text.
+	 */
+	public String render(Map<String, String> values) {
+		if (slots.length == 0)
+			return text;
+		int size = length;
+		String[] filled = new String[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			String value = values.get(slots[i]);
+			filled[i] = value == null ? slots[i] : value;
+			size += filled[i].length();
+		}
+		StringBuilder builder = new StringBuilder(size);
+		for (int i = 0; i < slots.length; i++)
+			builder.append(literals[i]).append(filled[i]);
+		return builder.append(literals[slots.length]).toString();
+	}
+
+	/**
+	 * Fills the slots that have a value into the literal text, the other slots stay slots.
+	 * Values aren't scanned for slots, so a value containing a %token% can't be filled again.
+	 *
+	 * @param values The values by the syntax of the slot.
+	 * @return A new MessageTemplate of the remaining slots.
+	 */
+	public MessageTemplate fill(Map<String, String> values) {
+		List<String> literals = new ArrayList<>(), slots = new ArrayList<>();
+		StringBuilder literal = new StringBuilder(this.literals[0]);
+		for (int i = 0; i < this.slots.length; i++) {
+			String value = values.get(this.slots[i]);
+			if (value != null) {
+				literal.append(value).append(this.literals[i + 1]);
+				continue;
+			}
+			literals.add(literal.toString());
+			slots.add(this.slots[i]);
+			literal = new StringBuilder(this.literals[i + 1]);
+		}
+		literals.add(literal.toString());
+		return new MessageTemplate(literals, slots);
+	}
+
+	/**
+	 * @return The text of the template with the slots unfilled.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @param syntax The syntax of a placeholder.
+	 * @return true if the syntax would be a slot, a %token% without whitespace.
+	 */
+	public static boolean isSlot(String syntax) {
+		return isSlot(syntax, 0, syntax.length());
+	}
+
+	/**
+	 * @param text The text the syntax is in.
+	 * @param start The index of the opening %.
+	 * @param end The index after the closing %.
+	 * @return true if the characters between start and end would be a slot.
+	 */
+	public static boolean isSlot(String text, int start, int end) {
+		if (end - start < 3 || text.charAt(start) != '%' || text.charAt(end - 1) != '%')
+			return false;
+		for (int i = start + 1; i < end - 1; i++) {
+			char character = text.charAt(i);
+			if (character == '%' || Character.isWhitespace(character))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+}
@@ -1,72 +1,67 @@
 package com.sitrica.core.messaging;
 
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
+import com.google.gson.JsonPrimitive;
+import com.sitrica.core.utils.Utils;
+
+/**
+ * Sends titles and the tab list header and footer.
+ * <p>
+ * Bukkit's own methods are used where the server has them, otherwise the packets are sent directly.
+ * Everything is looked up once, and sending to many players builds the packets once for all of them.
+ */
 public class Title {
-	
-	private static Class<?> chatComponentDeclared = getNMSClass("IChatBaseComponent").getDeclaredClasses()[0];
-	private static Class<?> packetPlayOutTitle = getNMSClass("PacketPlayOutTitle").getDeclaredClasses()[0];
-	private static Class<?> chatComponent = getNMSClass("IChatBaseComponent");
-	
-	private static Class<?> getNMSClass(String name) {
-		String version = Bukkit.getServer().getClass().getPackage().getName().split("\\.")[3];
-		try {
-			return Class.forName("net.minecraft.server." + version + "." + name);
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		}
-		return null;
-	}
 
-	private static void sendPacket(Player player, Object packet) {
-		try {
-			Object handle = player.getClass().getMethod("getHandle").invoke(player);
-			Object playerConnection = handle.getClass().getField("playerConnection").get(handle);
-			playerConnection.getClass().getMethod("sendPacket", getNMSClass("Packet")).invoke(playerConnection, packet);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+	// Caching
+	private final static boolean titles, tabs;
+
+	static {
+		titles = Utils.methodExists(Player.class, "sendTitle", String.class, String.class, int.class, int.class, int.class);
+		tabs = Utils.methodExists(Player.class, "setPlayerListHeaderFooter", String.class, String.class);
 	}
 
 	public static void sendTitle(Player player, String title, String subtitle, int fadeIn, int stay, int fadeOut) {
+		sendTitle(Collections.singleton(player), title, subtitle, fadeIn, stay, fadeOut);
+	}
+
+	/**
+	 * Sends the same title to every player, the packets are only built once.
+	 */
+	public static void sendTitle(Collection<? extends Player> players, String title, String subtitle, int fadeIn, int stay, int fadeOut) {
+		if (players.isEmpty())
+			return;
+		if (titles) {
+			for (Player player : players)
+				player.sendTitle(title, subtitle, fadeIn, stay, fadeOut);
+			return;
+		}
+		if (!Packets.loaded)
+			return;
 		try {
-			Object chatTitle, chatSubtitle, titlePacket, subtitlePacket;
-			Constructor<?> subtitleConstructor;
-			Method method = chatComponentDeclared.getMethod("a", new Class[]{String.class});
-			if (title != null) {
-				// Times packet
-				Object times = packetPlayOutTitle.getField("TIMES").get(null);
-				chatTitle = method.invoke((Object) null, new Object[]{"{\"text\":\"" + title + "\"}"});
-				subtitleConstructor = getNMSClass("PacketPlayOutTitle").getConstructor(new Class[]{packetPlayOutTitle, chatComponent, Integer.TYPE, Integer.TYPE, Integer.TYPE});
-				titlePacket = subtitleConstructor.newInstance(new Object[]{times, chatTitle, fadeIn, stay, fadeOut});
-				sendPacket(player, titlePacket);
-				// Title packet
-				times = packetPlayOutTitle.getField("TITLE").get(null);
-				chatTitle = method.invoke((Object) null, new Object[]{"{\"text\":\"" + title + "\"}"});
-				subtitleConstructor = getNMSClass("PacketPlayOutTitle").getConstructor(new Class[]{packetPlayOutTitle, chatComponent});
-				titlePacket = subtitleConstructor.newInstance(new Object[]{times, chatTitle});
-				sendPacket(player, titlePacket);
-			}
-			if (subtitle != null) {
-				// Times packet
-				Object times = packetPlayOutTitle.getField("TIMES").get(null);
-				chatSubtitle = method.invoke((Object) null, new Object[]{"{\"text\":\"" + title + "\"}"});
-				subtitleConstructor = getNMSClass("PacketPlayOutTitle").getConstructor(new Class[]{packetPlayOutTitle, chatComponent, Integer.TYPE, Integer.TYPE, Integer.TYPE});
-				subtitlePacket = subtitleConstructor.newInstance(new Object[]{times, chatSubtitle, fadeIn, stay, fadeOut});
-				sendPacket(player, subtitlePacket);
-				// Subtitle packet
-				times = packetPlayOutTitle.getField("SUBTITLE").get(null);
-				chatSubtitle = method.invoke((Object) null, new Object[]{"{\"text\":\"" + subtitle + "\"}"});
-				subtitleConstructor = getNMSClass("PacketPlayOutTitle").getConstructor(new Class[]{packetPlayOutTitle, chatComponent, Integer.TYPE, Integer.TYPE, Integer.TYPE});
-				subtitlePacket = subtitleConstructor.newInstance(new Object[]{times, chatSubtitle, fadeIn, stay, fadeOut});
-				sendPacket(player, subtitlePacket);
+			Object times = Packets.TIMED_TITLE.invoke(Packets.TIMES, null, fadeIn, stay, fadeOut);
+			Object titlePacket = title == null ? null : Packets.TITLE.invoke(Packets.TITLE_ACTION, Packets.component(title));
+			Object subtitlePacket = subtitle == null ? null : Packets.TITLE.invoke(Packets.SUBTITLE_ACTION, Packets.component(subtitle));
+			for (Player player : players) {
+				Object connection = Packets.connection(player);
+				Packets.SEND.invoke(connection, times);
+				if (titlePacket != null)
+					Packets.SEND.invoke(connection, titlePacket);
+				if (subtitlePacket != null)
+					Packets.SEND.invoke(connection, subtitlePacket);
 			}
-		} catch (Exception e) {
+		} catch (Throwable e) {
 			e.printStackTrace();
 		}
 	}
@@ -76,37 +71,95 @@ public class Title {
 	}
 
 	public static void sendTabTitle(Player player, String header, String footer) {
+		sendTabTitle(Collections.singleton(player), header, footer);
+	}
+
+	/**
+	 * Sends the same tab list header and footer to every player, the packet is only built once.
+	 */
+	public static void sendTabTitle(Collection<? extends Player> players, String header, String footer) {
 		if (header == null)
 			header = "";
 		if (footer == null)
 			footer = "";
+		if (players.isEmpty())
+			return;
+		if (tabs) {
+			for (Player player : players)
+				player.setPlayerListHeaderFooter(header, footer);
+			return;
+		}
+		if (!Packets.loaded)
+			return;
 		try {
-			Method method = chatComponentDeclared.getMethod("a", String.class);
-			Object tabHeader = method.invoke(null, "{\"text\":\"" + header + "\"}");
-			Object tabFooter = method.invoke(null, "{\"text\":\"" + footer + "\"}");
-			Constructor<?> titleConstructor = getNMSClass("PacketPlayOutPlayerListHeaderFooter").getConstructor();
-			Object packet = titleConstructor.newInstance();
+			Object packet = Packets.HEADER_FOOTER.invoke();
+			Packets.HEADER.invoke(packet, Packets.component(header));
+			Packets.FOOTER.invoke(packet, Packets.component(footer));
+			for (Player player : players)
+				Packets.SEND.invoke(Packets.connection(player), packet);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * The packets for servers without Bukkit's methods, looked up the first time they're needed.
+	 */
+	private static class Packets {
+
+		private static MethodHandle SERIALIZE, TIMED_TITLE, TITLE, HEADER_FOOTER, HEADER, FOOTER, HANDLE, CONNECTION, SEND;
+		private static Object TIMES, TITLE_ACTION, SUBTITLE_ACTION;
+		private static boolean loaded;
+
+		static {
 			try {
-				Field a = packet.getClass().getDeclaredField("a");
-				a.setAccessible(true);
-				a.set(packet, tabHeader);
-				Field b = packet.getClass().getDeclaredField("b");
-				b.setAccessible(true);
-				b.set(packet, tabFooter);
+				Lookup lookup = MethodHandles.lookup();
+				String craftbukkit = Bukkit.getServer().getClass().getPackage().getName();
+				String nms = "net.minecraft.server." + craftbukkit.split("\\.")[3] + ".";
+				Class<?> chatComponent = Class.forName(nms + "IChatBaseComponent");
+				SERIALIZE = lookup.unreflect(chatComponent.getDeclaredClasses()[0].getMethod("a", String.class));
+				Class<?> titlePacket = Class.forName(nms + "PacketPlayOutTitle");
+				Class<?> action = titlePacket.getDeclaredClasses()[0];
+				TIMES = action.getField("TIMES").get(null);
+				TITLE_ACTION = action.getField("TITLE").get(null);
+				SUBTITLE_ACTION = action.getField("SUBTITLE").get(null);
+				TIMED_TITLE = lookup.unreflectConstructor(titlePacket.getConstructor(action, chatComponent, int.class, int.class, int.class));
+				TITLE = lookup.unreflectConstructor(titlePacket.getConstructor(action, chatComponent));
+				Class<?> headerFooter = Class.forName(nms + "PacketPlayOutPlayerListHeaderFooter");
+				HEADER_FOOTER = lookup.unreflectConstructor(headerFooter.getConstructor());
+				Field header, footer;
+				try {
+					header = headerFooter.getDeclaredField("a");
+					footer = headerFooter.getDeclaredField("b");
+				} catch (NoSuchFieldException e) {
+					header = headerFooter.getDeclaredField("header");
+					footer = headerFooter.getDeclaredField("footer");
+				}
+				header.setAccessible(true);
+				footer.setAccessible(true);
+				HEADER = lookup.unreflectSetter(header);
+				FOOTER = lookup.unreflectSetter(footer);
+				HANDLE = lookup.unreflect(Class.forName(craftbukkit + ".entity.CraftPlayer").getMethod("getHandle"));
+				Field connection = HANDLE.type().returnType().getField("playerConnection");
+				CONNECTION = lookup.unreflectGetter(connection);
+				SEND = lookup.unreflect(connection.getType().getMethod("sendPacket", Class.forName(nms + "Packet")));
+				loaded = true;
 			} catch (Exception e) {
-				Field a = packet.getClass().getDeclaredField("header");
-				a.setAccessible(true);
-				a.set(packet, tabHeader);
-				Field b = packet.getClass().getDeclaredField("footer");
-				b.setAccessible(true);
-				b.set(packet, tabFooter);
+				e.printStackTrace();
 			}
-			sendPacket(player, packet);
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
+
+		private static Object component(String text) throws Throwable {
+			// Escapes quotes and backslashes in the text.
+			return SERIALIZE.invoke("{\"text\":" + new JsonPrimitive(text) + "}");
+		}
+
+		private static Object connection(Player player) throws Throwable {
+			return CONNECTION.invoke(HANDLE.invoke(player));
+		}
+
 	}
-	
+
 	public static class Builder {
 
 		/**
@@ -207,8 +260,18 @@ public class Title {
 		 * @param players the players to send the title to
 		 */
 		public void send(Player... players) {
-			for (Player player : players)
-				send(player);
+			send(Arrays.asList(players));
+		}
+
+		/**
+		 * Send a title based on the values in the builder to multiple players, the title is only built once.
+		 *
+		 * @param players the players to send the title to
+		 */
+		public void send(Collection<? extends Player> players) {
+			if (title.equals("") && subtitle.equals(""))
+				return;
+			sendTitle(players.stream().filter(Objects::nonNull).collect(Collectors.toList()), Formatting.color(title), Formatting.color(subtitle), fadeIn, stay, fadeOut);
 		}
 
 		/**
@@ -217,11 +280,9 @@ public class Title {
 		 * @param player the player to send the title to
 		 */
 		public void send(Player player) {
-			if (!title.equals("") && !subtitle.equals(""))
-				return;
 			if (player == null)
 				return;
-			sendTitle(player, Formatting.color(title), Formatting.color(subtitle), fadeIn, stay, fadeOut);
+			send(Collections.singleton(player));
 		}
 	}
 
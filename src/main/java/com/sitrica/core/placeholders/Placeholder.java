@@ -9,15 +9,41 @@ import com.sitrica.core.messaging.Formatting;
 
 public abstract class Placeholder<T> {
 
+	/**
+	 * How long a replacement stays valid before it's computed again, see {@link PlaceholderCache}.
+	 */
+	public enum Refresh {
+		// Computed for every message, item or line, the default.
+		RENDER,
+		// Computed once per server tick for every object.
+		TICK,
+		// Computed once per the refresh interval for every object.
+		INTERVAL,
+		// Computed once until invalidated with PlaceholderCache#invalidate.
+		EVENT
+	}
+
+	// The raw type of T resolved once per placeholder class.
+	private static final ClassValue<Class<?>> TYPES = new ClassValue<Class<?>>() {
+		@Override
+		protected Class<?> computeValue(Class<?> type) {
+			return TypeToken.of(type).resolveType(Placeholder.class.getTypeParameters()[0]).getRawType();
+		}
+	};
+
+	private Refresh refresh = Refresh.RENDER;
+	private final Class<? super T> type;
+	private long interval;
 	private final String[] syntaxes;
 	private final int priority;
 
 	public Placeholder(String... syntaxes) {
-		this.syntaxes = syntaxes;
-		this.priority = 99;
+		this(99, syntaxes);
 	}
 
+	@SuppressWarnings("unchecked")
 	public Placeholder(int priority, String... syntaxes) {
+		this.type = (Class<? super T>) TYPES.get(getClass());
 		this.syntaxes = syntaxes;
 		this.priority = priority;
 	}
@@ -30,9 +56,33 @@ public abstract class Placeholder<T> {
 		return syntaxes;
 	}
 	
-	@SuppressWarnings("serial")
 	public Class<? super T> getType() {
-		return new TypeToken<T>(getClass()){}.getRawType();
+		return type;
+	}
+
+	/**
+	 * Set how long the replacements of this placeholder stay valid, for placeholders that are costly to compute.
+	 * Example: refreshing(Refresh.INTERVAL, 5000) computes a balance once every 5 seconds per player.
+	 * 
+	 * @param refresh The Refresh policy of the replacements.
+	 * @param interval The milliseconds a replacement stays valid, only used by {@link Refresh#INTERVAL}.
+	 * @return The Placeholder for chaining.
+	 */
+	public Placeholder<T> refreshing(Refresh refresh, long interval) {
+		this.refresh = refresh;
+		this.interval = interval;
+		return this;
+	}
+
+	public Refresh getRefresh() {
+		return refresh;
+	}
+
+	/**
+	 * @return The milliseconds a replacement stays valid with {@link Refresh#INTERVAL}.
+	 */
+	public long getRefreshInterval() {
+		return interval;
 	}
 	
 	/**
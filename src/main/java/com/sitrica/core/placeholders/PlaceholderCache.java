@@ -0,0 +1,138 @@
+package com.sitrica.core.placeholders;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sitrica.core.placeholders.Placeholder.Refresh;
+
+/**
+ * Memoizes the replacements of placeholders per object, following the {@link Refresh} policy of each placeholder.
+ * <p>
+ * A broadcast to every player mentioning a costly placeholder, such as a balance, computes it once per player instead of once per message.
+ * The cache is bounded and entries that aren't used for a while are dropped, so objects like players aren't held onto.
+ */
+public class PlaceholderCache {
+
+	// Server ticks are 50 milliseconds, values computed within the same tick are shared.
+	private static final long TICK = 50;
+
+	private static final Cache<Key, Memo> MEMOS = CacheBuilder.newBuilder()
+			.expireAfterAccess(10, TimeUnit.MINUTES)
+			.maximumSize(10000)
+			.build();
+
+	/**
+	 * Grab the memoized replacement of the placeholder for the object, computing it if it's no longer valid.
+	 *
+	 * @param placeholder The placeholder being replaced.
+	 * @param object The object the placeholder is replaced for, null for simple placeholders.
+	 * @param compute Computes the replacement.
+	 * @return The replacement, null if the placeholder has no replacement for the object.
+	 */
+	public static String get(Placeholder<?> placeholder, Object object, Supplier<String> compute) {
+		Refresh refresh = placeholder.getRefresh();
+		if (refresh == Refresh.RENDER)
+			return compute.get();
+		Key key = new Key(placeholder, object);
+		long now = System.currentTimeMillis();
+		Memo memo = MEMOS.getIfPresent(key);
+		if (memo != null && memo.isValid(refresh, placeholder.getRefreshInterval(), now))
+			return memo.value;
+		String value = compute.get();
+		MEMOS.put(key, new Memo(value, now));
+		return value;
+	}
+
+	/**
+	 * Drops every memoized replacement of the placeholder, the next render computes them again.
+	 *
+	 * @param placeholder The placeholder that changed.
+	 */
+	public static void invalidate(Placeholder<?> placeholder) {
+		MEMOS.asMap().keySet().removeIf(key -> key.placeholder == placeholder);
+	}
+
+	/**
+	 * Drops the memoized replacement of the placeholder for an object, such as when a player's balance changes.
+	 *
+	 * @param placeholder The placeholder that changed.
+	 * @param object The object the replacement changed for.
+	 */
+	public static void invalidate(Placeholder<?> placeholder, Object object) {
+		MEMOS.invalidate(new Key(placeholder, object));
+	}
+
+	/**
+	 * Drops the memoized replacements of every placeholder for an object, such as when a player quits.
+	 *
+	 * @param object The object to drop the replacements of.
+	 */
+	public static void invalidateObject(Object object) {
+		MEMOS.asMap().keySet().removeIf(key -> Objects.equals(key.object, object));
+	}
+
+	public static void invalidateAll() {
+		MEMOS.invalidateAll();
+	}
+
+	/**
+	 * @return The amount of memoized replacements.
+	 */
+	public static long getSize() {
+		return MEMOS.size();
+	}
+
+	private static class Memo {
+
+		private final String value;
+		private final long computed;
+
+		Memo(String value, long computed) {
+			this.computed = computed;
+			this.value = value;
+		}
+
+		private boolean isValid(Refresh refresh, long interval, long now) {
+			switch (refresh) {
+				case TICK:
+					return computed / TICK == now / TICK;
+				case INTERVAL:
+					return now - computed < interval;
+				case EVENT:
+					return true;
+				default:
+					return false;
+			}
+		}
+
+	}
+
+	private static class Key {
+
+		private final Placeholder<?> placeholder;
+		private final Object object;
+
+		Key(Placeholder<?> placeholder, Object object) {
+			this.placeholder = placeholder;
+			this.object = object;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return key.placeholder == placeholder && Objects.equals(key.object, object);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(placeholder) + Objects.hashCode(object);
+		}
+
+	}
+
+}
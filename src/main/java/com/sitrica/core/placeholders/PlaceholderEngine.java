@@ -0,0 +1,208 @@
+package com.sitrica.core.placeholders;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.sitrica.core.messaging.MessageTemplate;
+
+/**
+ * Replaces the placeholders of a builder in a single pass over the text.
+ * <p>
+ * The text is scanned once for %token% slots, every slot is looked up by it's syntax and the values are appended into one StringBuilder.
+ * The placeholders added to the builder come first, then the registered {@link Placeholders} by priority.
+ * A value is resolved once per engine, so an engine should only be used for a single build.
+ * Syntaxes that can't be slots, such as ones with spaces, are still replaced afterwards.
+ */
+public class PlaceholderEngine {
+
+	// Marks syntaxes that were looked up without a value.
+	private static final String MISSING = new String();
+
+	private final Map<Placeholder<?>, Object> placeholders;
+	private final Map<String, String> values = new HashMap<>();
+	private final Object defaultObject;
+	private boolean newlines, shared;
+	private List<String> others;
+
+	/**
+	 * @param placeholders The placeholders added to the builder with their object, in the order they apply.
+	 * @param defaultObject The object for the registered placeholders of it's type, null for only the simple placeholders.
+	 */
+	public PlaceholderEngine(Map<Placeholder<?>, Object> placeholders, Object defaultObject) {
+		this.placeholders = placeholders;
+		this.defaultObject = defaultObject;
+	}
+
+	/**
+	 * Replaces %newline% and %nl% with new lines if no placeholder uses them.
+	 *
+	 * @return The PlaceholderEngine for chaining.
+	 */
+	public PlaceholderEngine withNewlines() {
+		this.newlines = true;
+		return this;
+	}
+
+	/**
+	 * Only resolves the placeholders that are the same for every recipient, the ones of the builder and the simple placeholders.
+	 * A syntax is left unresolved if a placeholder of an object's type would come first for it.
+	 *
+	 * @return The PlaceholderEngine for chaining.
+	 */
+	public PlaceholderEngine shared() {
+		this.shared = true;
+		return this;
+	}
+
+	/**
+	 * Resolves the slots of the template that have a value into a new template, see {@link MessageTemplate#fill(Map)}.
+	 *
+	 * @param template The compiled template to fill.
+	 * @return The MessageTemplate of the slots that didn't have a value.
+	 */
+	public MessageTemplate fill(MessageTemplate template) {
+		Map<String, String> slots = new HashMap<>();
+		for (String syntax : template.getSlots()) {
+			String value = get(syntax);
+			if (value != null)
+				slots.put(syntax, value);
+		}
+		return template.fill(slots);
+	}
+
+	/**
+	 * @param input The text to replace the placeholders in.
+	 * @return The text with the placeholders replaced.
+	 */
+	public String apply(String input) {
+		if (input == null || input.isEmpty())
+			return input;
+		StringBuilder builder = null;
+		int last = 0, start = input.indexOf('%');
+		while (start >= 0) {
+			int end = input.indexOf('%', start + 1);
+			if (end < 0)
+				break;
+			String value = MessageTemplate.isSlot(input, start, end + 1) ? get(input.substring(start, end + 1)) : null;
+			if (value == null) {
+				// The closing % can still open the next slot.
+				start = end;
+				continue;
+			}
+			if (builder == null)
+				builder = new StringBuilder(input.length() + value.length());
+			builder.append(input, last, start).append(value);
+			last = end + 1;
+			start = input.indexOf('%', last);
+		}
+		String output = builder == null ? input : builder.append(input, last, input.length()).toString();
+		return applyOthers(output);
+	}
+
+	/**
+	 * @param template The compiled template to render.
+	 * @return The text of the template with the placeholders replaced.
+	 */
+	public String apply(MessageTemplate template) {
+		Map<String, String> slots = new HashMap<>();
+		for (String syntax : template.getSlots()) {
+			String value = get(syntax);
+			if (value != null)
+				slots.put(syntax, value);
+		}
+		return applyOthers(template.render(slots));
+	}
+
+	/**
+	 * Grab the value of a syntax, resolving it if it wasn't yet.
+	 *
+	 * @param syntax The syntax of the placeholder e.g: %player%
+	 * @return The value of the syntax, null if no placeholder has a value for it.
+	 */
+	public String get(String syntax) {
+		String value = values.get(syntax);
+		if (value == null) {
+			value = resolve(syntax);
+			values.put(syntax, value == null ? MISSING : value);
+		}
+		return value == MISSING ? null : value;
+	}
+
+	private String resolve(String syntax) {
+		// Registered Placeholders, in the order of the builder.
+		for (Entry<Placeholder<?>, Object> entry : placeholders.entrySet()) {
+			Placeholder<?> placeholder = entry.getKey();
+			if (!matches(placeholder, syntax))
+				continue;
+			String replacement = compute(placeholder, entry.getValue());
+			if (replacement != null)
+				return replacement;
+		}
+		// Default Placeholders, by priority.
+		List<Placeholder<?>> defaults = defaultObject == null ? Placeholders.getPlaceholders(syntax) : Placeholders.getPlaceholders(defaultObject.getClass(), syntax);
+		for (Placeholder<?> placeholder : defaults) {
+			// The placeholders of the object's class were already matched to it's type.
+			if (defaultObject == null && !(placeholder instanceof SimplePlaceholder)) {
+				// Left for the recipient's object, which this placeholder would come first for.
+				if (shared)
+					return null;
+				continue;
+			}
+			String replacement = compute(placeholder, defaultObject);
+			if (replacement != null)
+				return replacement;
+		}
+		// This allows users to insert new lines into their lores.
+		if (newlines && (syntax.equals("%newline%") || syntax.equals("%nl%")))
+			return "\n";
+		return null;
+	}
+
+	private String applyOthers(String output) {
+		if (others == null) {
+			List<String> registered = Placeholders.getUnscannableSyntaxes();
+			List<String> own = null;
+			for (Placeholder<?> placeholder : placeholders.keySet()) {
+				for (String syntax : placeholder.getSyntaxes()) {
+					if (MessageTemplate.isSlot(syntax) || registered.contains(syntax))
+						continue;
+					if (own == null)
+						own = new ArrayList<>(registered);
+					if (!own.contains(syntax))
+						own.add(syntax);
+				}
+			}
+			// Only copied when the builder has syntaxes of it's own.
+			others = own == null ? registered : own;
+		}
+		for (String syntax : others) {
+			if (!output.contains(syntax))
+				continue;
+			String value = get(syntax);
+			if (value != null)
+				output = output.replace(syntax, value);
+		}
+		return output;
+	}
+
+	// Simple placeholders don't depend on the object, so they're memoized once for every object.
+	private String compute(Placeholder<?> placeholder, Object object) {
+		if (placeholder instanceof SimplePlaceholder) {
+			SimplePlaceholder simple = (SimplePlaceholder) placeholder;
+			return PlaceholderCache.get(simple, null, simple::get);
+		}
+		return PlaceholderCache.get(placeholder, object, () -> placeholder.replace_i(object));
+	}
+
+	private boolean matches(Placeholder<?> placeholder, String syntax) {
+		for (String other : placeholder.getSyntaxes()) {
+			if (other.equals(syntax))
+				return true;
+		}
+		return false;
+	}
+
+}
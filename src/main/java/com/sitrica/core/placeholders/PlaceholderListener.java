@@ -0,0 +1,21 @@
+package com.sitrica.core.placeholders;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Drops the memoized placeholder replacements of players that quit, registered by {@link com.sitrica.core.SourPlugin#onEnable()}.
+ */
+public class PlaceholderListener implements Listener {
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onQuit(PlayerQuitEvent event) {
+		Player player = event.getPlayer();
+		PlaceholderCache.invalidateObject(player);
+		PlaceholderCache.invalidateObject(player.getUniqueId());
+	}
+
+}
@@ -3,41 +3,140 @@ package com.sitrica.core.placeholders;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
-import com.google.common.collect.Lists;
+import com.sitrica.core.messaging.MessageTemplate;
 
+/**
+ * The registered placeholders, readable from any thread.
+ * <p>
+ * Registering rebuilds an immutable snapshot sorted by priority, with the placeholders indexed by syntax and by type,
+ * so looking placeholders up doesn't copy, sort or scan anything.
+ */
 public class Placeholders {
 
-	private static final List<Placeholder<?>> placeholders = new ArrayList<>();
+	private static volatile Snapshot snapshot = new Snapshot(new ArrayList<>());
 
-	public static void registerPlaceholder(Placeholder<?> placeholder) {
+	public static synchronized void registerPlaceholder(Placeholder<?> placeholder) {
+		List<Placeholder<?>> placeholders = new ArrayList<>(snapshot.registered);
 		placeholders.add(placeholder);
+		snapshot = new Snapshot(placeholders);
 	}
 
 	/**
 	 * Grab a placeholder by it's syntax.
 	 * Example: %command% to be replaced by a String command.
-	 * 
+	 *
 	 * @param syntax The syntax to grab e.g: %player%
 	 * @return The placeholder if the syntax was found.
 	 */
 	public static Optional<Placeholder<?>> getPlaceholder(String syntax) {
-		for (Placeholder<?> placeholder : placeholders) {
-			for (String s : placeholder.getSyntaxes()) {
-				if (s.equals(syntax)) {
-					return Optional.of(placeholder);
+		return Optional.ofNullable(snapshot.first.get(syntax));
+	}
+
+	/**
+	 * @param syntax The syntax to grab e.g: %player%
+	 * @return The placeholders using the syntax sorted by priority, empty if there are none.
+	 */
+	public static List<Placeholder<?>> getPlaceholders(String syntax) {
+		return snapshot.syntaxes.getOrDefault(syntax, Collections.emptyList());
+	}
+
+	/**
+	 * @param type The class of the object to replace placeholders for.
+	 * @return The placeholders that can replace from the type sorted by priority, simple placeholders aren't included.
+	 */
+	public static List<Placeholder<?>> getPlaceholders(Class<?> type) {
+		return snapshot.buckets.get(type).typed;
+	}
+
+	/**
+	 * @param type The class of the object to replace placeholders for.
+	 * @param syntax The syntax to grab e.g: %player%
+	 * @return The simple placeholders and the placeholders that can replace from the type using the syntax sorted by priority.
+	 */
+	public static List<Placeholder<?>> getPlaceholders(Class<?> type, String syntax) {
+		return snapshot.buckets.get(type).syntaxes.getOrDefault(syntax, Collections.emptyList());
+	}
+
+	/**
+	 * @return The syntaxes that aren't a %token%, such as ones with spaces, which can't be looked up while scanning text.
+	 */
+	public static List<String> getUnscannableSyntaxes() {
+		return snapshot.unscannable;
+	}
+
+	/**
+	 * @return Every registered placeholder sorted by priority, the list can't be modified.
+	 */
+	public static List<Placeholder<?>> getPlaceholders() {
+		return snapshot.sorted;
+	}
+
+	private static class Snapshot {
+
+		// The bucket of a class holds the placeholders of it's supertypes too, it's filled the first time the class is looked up.
+		// A ClassValue doesn't keep the classes of unloaded plugins from being collected.
+		private final ClassValue<Bucket> buckets = new ClassValue<Bucket>() {
+			@Override
+			protected Bucket computeValue(Class<?> type) {
+				return new Bucket(sorted, type);
+			}
+		};
+
+		private final Map<String, List<Placeholder<?>>> syntaxes = new HashMap<>();
+		private final Map<String, Placeholder<?>> first = new HashMap<>();
+		private final List<Placeholder<?>> registered, sorted;
+		private final List<String> unscannable;
+
+		Snapshot(List<Placeholder<?>> placeholders) {
+			this.registered = placeholders;
+			// The first registered placeholder of a syntax is the one grabbed by it's syntax.
+			for (Placeholder<?> placeholder : placeholders) {
+				for (String syntax : placeholder.getSyntaxes())
+					first.putIfAbsent(syntax, placeholder);
+			}
+			List<Placeholder<?>> sorted = new ArrayList<>(placeholders);
+			// A stable sort, placeholders of the same priority stay in the order they were registered.
+			sorted.sort(Comparator.comparing(Placeholder::getPriority));
+			List<String> unscannable = new ArrayList<>();
+			for (Placeholder<?> placeholder : sorted) {
+				for (String syntax : placeholder.getSyntaxes()) {
+					syntaxes.computeIfAbsent(syntax, s -> new ArrayList<>()).add(placeholder);
+					if (!MessageTemplate.isSlot(syntax) && !unscannable.contains(syntax))
+						unscannable.add(syntax);
 				}
 			}
+			syntaxes.replaceAll((syntax, list) -> Collections.unmodifiableList(list));
+			this.sorted = Collections.unmodifiableList(sorted);
+			this.unscannable = Collections.unmodifiableList(unscannable);
 		}
-		return Optional.empty();
+
 	}
 
-	public static List<Placeholder<?>> getPlaceholders() {
-		List<Placeholder<?>> alternative = Lists.newArrayList(placeholders);
-		Collections.sort(alternative, Comparator.comparing(Placeholder::getPriority));
-		return alternative;
+	private static class Bucket {
+
+		private final Map<String, List<Placeholder<?>>> syntaxes = new HashMap<>();
+		private final List<Placeholder<?>> typed;
+
+		Bucket(List<Placeholder<?>> sorted, Class<?> type) {
+			List<Placeholder<?>> typed = new ArrayList<>();
+			for (Placeholder<?> placeholder : sorted) {
+				boolean simple = placeholder instanceof SimplePlaceholder;
+				if (!simple && !placeholder.getType().isAssignableFrom(type))
+					continue;
+				if (!simple)
+					typed.add(placeholder);
+				for (String syntax : placeholder.getSyntaxes())
+					syntaxes.computeIfAbsent(syntax, s -> new ArrayList<>()).add(placeholder);
+			}
+			syntaxes.replaceAll((syntax, list) -> Collections.unmodifiableList(list));
+			this.typed = Collections.unmodifiableList(typed);
+		}
+
 	}
 
 }
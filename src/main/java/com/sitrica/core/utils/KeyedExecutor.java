@@ -0,0 +1,273 @@
+package com.sitrica.core.utils;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.bukkit.Bukkit;
+
+/**
+ * Runs tasks of the same key in the order they were submitted, while tasks of different keys run in parallel.
+ * Keys are things like a player's UUID or a kingdom's name.
+ * <p>
+ * Every key with queued tasks has a lane on the shared worker threads, so there is no thread per key.
+ * A lane gives it's worker back after a few tasks so a busy key can't starve the others.
+ * The amount of queued and running tasks is bounded, submitting past that blocks the caller until there is room again.
+ * Tasks submitted from a worker of any KeyedExecutor never block, they go past the bound instead,
+ * since the workers waiting for room would be the ones making it.
+ * The server thread only waits for room up to a timeout so a full executor can't freeze the server,
+ * after that the task goes past the bound and is counted in {@link #getOverflows()}.
+ */
+public class KeyedExecutor {
+
+	// Tasks a lane runs before giving it's worker to the other lanes.
+	private static final int BATCH = 32;
+	// Marks the worker threads of every KeyedExecutor.
+	private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> false);
+	private static KeyedExecutor common;
+
+	private final Map<Object, Lane> lanes = new ConcurrentHashMap<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger overflows = new AtomicInteger();
+	private final ExecutorService workers;
+	private final Semaphore capacity;
+	private final long mainThreadWait;
+	private volatile boolean shutdown;
+
+	/**
+	 * @param name The name of the worker threads.
+	 * @param threads The amount of worker threads.
+	 * @param queueSize The maximum amount of queued and running tasks.
+	 */
+	public KeyedExecutor(String name, int threads, int queueSize) {
+		this(name, threads, queueSize, 50);
+	}
+
+	/**
+	 * @param name The name of the worker threads.
+	 * @param threads The amount of worker threads.
+	 * @param queueSize The maximum amount of queued and running tasks.
+	 * @param mainThreadWait The milliseconds the server thread waits for room before going past the bound.
+	 */
+	public KeyedExecutor(String name, int threads, int queueSize, long mainThreadWait) {
+		AtomicInteger count = new AtomicInteger();
+		// Not daemons so queued writes finish before the JVM exits, idle workers stop so they don't keep it running.
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+			WORKER.set(true);
+			runnable.run();
+		}, name + " #" + count.incrementAndGet()));
+		workers.allowCoreThreadTimeOut(true);
+		this.workers = workers;
+		this.capacity = new Semaphore(Math.max(1, queueSize));
+		this.mainThreadWait = Math.max(0, mainThreadWait);
+	}
+
+	/**
+	 * @return The KeyedExecutor used by databases that weren't given one, it's never shutdown.
+	 */
+	public static synchronized KeyedExecutor getCommon() {
+		if (common == null)
+			common = new KeyedExecutor("SourCore Keyed Worker", Runtime.getRuntime().availableProcessors(), 10000);
+		return common;
+	}
+
+	/**
+	 * Runs the task after every task submitted before it for the same key.
+	 * Blocks while the executor is full, the server thread only up to the configured wait.
+	 *
+	 * @param key The key to order the task with.
+	 * @param task The task to run.
+	 * @return A CompletableFuture completed once the task ran.
+	 * @throws RejectedExecutionException If the executor is shutdown.
+	 */
+	public CompletableFuture<Void> execute(Object key, Runnable task) {
+		return submit(key, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Runs the task after every task submitted before it for the same key.
+	 * Blocks while the executor is full, the server thread only up to the configured wait.
+	 *
+	 * @param <R> The result of the task.
+	 * @param key The key to order the task with.
+	 * @param task The task to run.
+	 * @return A CompletableFuture of the result of the task.
+	 * @throws RejectedExecutionException If the executor is shutdown.
+	 */
+	public <R> CompletableFuture<R> submit(Object key, Supplier<R> task) {
+		if (WORKER.get())
+			return enqueue(key, task, capacity.tryAcquire());
+		try {
+			if (Bukkit.isPrimaryThread()) {
+				// Going past the bound keeps the order of the key, running inline or dropping it wouldn't.
+				boolean permit = capacity.tryAcquire() || capacity.tryAcquire(mainThreadWait, TimeUnit.MILLISECONDS);
+				if (!permit)
+					overflows.incrementAndGet();
+				return enqueue(key, task, permit);
+			}
+			capacity.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			CompletableFuture<R> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+		return enqueue(key, task, true);
+	}
+
+	/**
+	 * Same as {@link #submit(Object, Supplier)} but doesn't wait for room, a worker is never refused.
+	 *
+	 * @param <R> The result of the task.
+	 * @param key The key to order the task with.
+	 * @param task The task to run.
+	 * @return A CompletableFuture of the result of the task, null if the executor is full.
+	 * @throws RejectedExecutionException If the executor is shutdown.
+	 */
+	public <R> CompletableFuture<R> trySubmit(Object key, Supplier<R> task) {
+		boolean permit = capacity.tryAcquire();
+		if (!permit && !WORKER.get())
+			return null;
+		return enqueue(key, task, permit);
+	}
+
+	// Tasks without a permit were submitted by a worker or the server thread while full, they don't give one back.
+	private <R> CompletableFuture<R> enqueue(Object key, Supplier<R> task, boolean permit) {
+		if (shutdown) {
+			if (permit)
+				capacity.release();
+			throw new RejectedExecutionException("The KeyedExecutor is shutdown");
+		}
+		pending.incrementAndGet();
+		CompletableFuture<R> future = new CompletableFuture<>();
+		Runnable runnable = () -> {
+			try {
+				future.complete(task.get());
+			} catch (Throwable throwable) {
+				future.completeExceptionally(throwable);
+			} finally {
+				pending.decrementAndGet();
+				if (permit)
+					capacity.release();
+			}
+		};
+		Lane[] start = new Lane[1];
+		// Lanes are only changed inside the map, so a lane can't be removed while a task is added to it.
+		lanes.compute(key, (k, lane) -> {
+			if (lane == null)
+				lane = new Lane(k);
+			lane.tasks.add(runnable);
+			if (!lane.running) {
+				lane.running = true;
+				start[0] = lane;
+			}
+			return lane;
+		});
+		if (start[0] != null)
+			workers.execute(start[0]);
+		return future;
+	}
+
+	/**
+	 * @return The amount of queued and running tasks.
+	 */
+	public int getQueued() {
+		return pending.get();
+	}
+
+	/**
+	 * @return The amount of tasks the server thread submitted past the bound after waiting for room.
+	 */
+	public int getOverflows() {
+		return overflows.get();
+	}
+
+	/**
+	 * @return The amount of keys with queued tasks.
+	 */
+	public int getActiveKeys() {
+		return lanes.size();
+	}
+
+	/**
+	 * Stops accepting tasks and waits for the queued tasks to run.
+	 *
+	 * @param timeout The milliseconds to wait for the queued tasks.
+	 * @return true if every queued task ran within the timeout.
+	 */
+	public boolean shutdown(long timeout) {
+		shutdown = true;
+		long deadline = System.currentTimeMillis() + timeout;
+		try {
+			while (getQueued() > 0) {
+				if (System.currentTimeMillis() >= deadline)
+					return false;
+				Thread.sleep(10);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	private class Lane implements Runnable {
+
+		private final Queue<Runnable> tasks = new ArrayDeque<>();
+		private boolean running;
+		private final Object key;
+
+		Lane(Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			int ran = 0;
+			while (true) {
+				Runnable task = next();
+				if (task == null)
+					return;
+				task.run();
+				if (++ran < BATCH || shutdown)
+					continue;
+				try {
+					workers.execute(this);
+					return;
+				} catch (RejectedExecutionException e) {
+					// Shutdown while yielding, finish the lane on this worker.
+				}
+			}
+		}
+
+		private Runnable next() {
+			Runnable[] next = new Runnable[1];
+			lanes.computeIfPresent(key, (k, lane) -> {
+				next[0] = lane.tasks.poll();
+				if (next[0] != null)
+					return lane;
+				// Removed once empty, the next task of the key starts a new lane.
+				lane.running = false;
+				return null;
+			});
+			return next[0];
+		}
+
+	}
+
+}